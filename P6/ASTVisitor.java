@@ -0,0 +1,65 @@
+import java.util.*;
+
+/**
+ * The ASTVisitor interface defines a walk over the abstract-syntax tree.
+ * ASTnode.accept calls preVisit on a node; if preVisit returns true the
+ * node's children are visited (in source order) before postVisit is
+ * called on the node itself.
+ */
+interface ASTVisitor {
+    /**
+     * Called before the children of node are visited. Return false to
+     * skip the subtree rooted at node.
+     */
+    boolean preVisit(ASTnode node);
+
+    /**
+     * Called after the children of node have been visited (or skipped).
+     */
+    void postVisit(ASTnode node);
+}
+
+/**
+ * The FusedVisitor class runs several independent visitors in a single
+ * traversal of the tree. Each visitor sees exactly the calls it would see
+ * if it walked the tree on its own: when one visitor prunes a subtree,
+ * the others still descend into it.
+ */
+class FusedVisitor implements ASTVisitor {
+    private ASTVisitor[] visitors;
+    // for each visitor, the node whose subtree it asked to skip (or null)
+    private ASTnode[] prunedAt;
+    
+    public FusedVisitor(List<ASTVisitor> L) {
+        visitors = L.toArray(new ASTVisitor[L.size()]);
+        prunedAt = new ASTnode[visitors.length];
+    }
+
+    public boolean preVisit(ASTnode node) {
+        boolean descend = false;
+        for (int k = 0; k < visitors.length; k++) {
+            if (prunedAt[k] != null) {
+                continue;
+            }
+            if (visitors[k].preVisit(node)) {
+                descend = true;
+            }
+            else {
+                prunedAt[k] = node;
+            }
+        }
+        return descend;
+    }
+
+    public void postVisit(ASTnode node) {
+        for (int k = 0; k < visitors.length; k++) {
+            if (prunedAt[k] == node) {  // leaving the skipped subtree
+                prunedAt[k] = null;
+                visitors[k].postVisit(node);
+            }
+            else if (prunedAt[k] == null) {
+                visitors[k].postVisit(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The AstCache class keeps, in a directory, the analyzed AST of each
+ * program compiled (after name analysis and type checking, so with its
+ * symbols, offsets and types), together with the messages reported up to
+ * then, under a hash of the program's source. A later compile of the same
+ * source reads them back and goes straight to code generation, skipping
+ * scanning, parsing and analysis (CimpleCompiler.setAstCacheDir).
+ *
+ * An entry is written by AstWriter in a binary form of its own (each
+ * name and symbol once, small numbers in a byte), about one and a half
+ * times the size of the source. The tree is written and read without
+ * recursion, so any tree the compiler can analyze can be kept. VERSION is
+ * part of the key, so entries written by another version of the compiler
+ * are never looked up. An entry that cannot be read, or does not hold
+ * what AstWriter writes (see AstReader), is treated as missing, and one
+ * that cannot be written is left out.
+ *
+ * As with CodeCache, entries are never removed; the directory can be
+ * deleted at any time.
+ */
+class AstCache {
+    // change whenever what an analyzed AST holds, or how AstWriter
+    // writes it, changes, to ignore old entries
+    private static final String VERSION = "3";
+
+    private File dir;
+    private AtomicInteger hits = new AtomicInteger();
+    private AtomicInteger misses = new AtomicInteger();
+
+    public AstCache(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create cache directory " + dir);
+        }
+    }
+
+    /**
+     * An analyzed program and the messages reported while scanning,
+     * parsing and analyzing it.
+     */
+    static class Entry {
+        private ProgramNode root;
+        private ErrMsg msgs;
+
+        Entry(ProgramNode root, ErrMsg msgs) {
+            this.root = root;
+            this.msgs = msgs;
+        }
+
+        public ProgramNode root() {
+            return root;
+        }
+
+        public ErrMsg messages() {
+            return msgs;
+        }
+    }
+
+    /**
+     * Return the key under which the analyzed AST of source is kept.
+     */
+    public String key(CharSequence source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update((VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+            byte[] hash = md.digest(
+                source.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new CompileAbortException(
+                "SHA-256 not available in AstCache.key");
+        }
+    }
+
+    /**
+     * Return the entry kept under key, or null if there is none (or it
+     * cannot be read).
+     */
+    public Entry get(String key) {
+        File file = new File(dir, key + ".ast");
+        try (InputStream in = new BufferedInputStream(
+                 new FileInputStream(file))) {
+            ErrMsg[] msgs = new ErrMsg[1];
+            ProgramNode root = AstReader.read(in, file.length(), msgs);
+            hits.incrementAndGet();
+            return new Entry(root, msgs[0]);
+        } catch (IOException ex) {  // not cached, or unreadable
+        } catch (RuntimeException ex) {  // not what AstWriter writes
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Keep an entry under key. The entry is written to a temporary file
+     * first so that a concurrent compile never reads a partial entry.
+     * Failing to write an entry, for whatever reason, only means the
+     * source will be analyzed again next time.
+     */
+    public void put(String key, Entry entry) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("entry", ".tmp", dir);
+            try (OutputStream out = new BufferedOutputStream(
+                     new FileOutputStream(tmp))) {
+                AstWriter.write(entry.root(), entry.messages(), out);
+            }
+            Files.move(tmp.toPath(), new File(dir, key + ".ast").toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException ex) {
+        } catch (RuntimeException ex) {
+        } catch (StackOverflowError ex) {
+        } finally {
+            if (tmp != null) {  // leave the entry out
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Number of compiles whose AST was (not) found in the cache.
+     */
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+}
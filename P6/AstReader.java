@@ -0,0 +1,481 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The AstReader class reads back an analyzed AST written by AstWriter.
+ *
+ * Nothing read is trusted: a number of children, or the length of a
+ * list or a string, cannot be larger than the file, each node must have
+ * children of the classes its constructor takes, and only the classes
+ * of the AST are made. A file that does not hold what AstWriter writes
+ * makes read throw an IOException (or, for a file that is well formed
+ * but made up, a RuntimeException), never allocate much more than the
+ * file's size. Like the writer, the reader uses no recursion.
+ */
+class AstReader {
+    private DataInputStream in;
+    private long size;  // of the file: no count read can be larger
+
+    // what the symbol part defined, by number (from 1)
+    private List<SemSym> syms = new ArrayList<SemSym>();
+    private List<SymTable> tables = new ArrayList<SymTable>();
+    // names read by this reader, by number (from 1)
+    private List<String> names = new ArrayList<String>();
+    private int lastLine = 0;  // see readLine
+
+    private AstReader(DataInputStream in, long size, AstReader shared) {
+        this.in = in;
+        this.size = size;
+        if (shared != null) {
+            syms = shared.syms;
+            tables = shared.tables;
+        }
+    }
+
+    /**
+     * Read the file written by AstWriter.write from in, which holds size
+     * bytes. The messages are put in msgs.
+     * @return the root of the tree
+     */
+    public static ProgramNode read(InputStream in, long size, ErrMsg[] msgs)
+        throws IOException {
+        AstReader head = new AstReader(new DataInputStream(in), size, null);
+        if (head.in.readInt() != AstWriter.MAGIC) {
+            throw new IOException("not an AST file");
+        }
+        boolean err = head.readBoolean();
+        String text = head.readString();
+        if (text == null) {
+            throw new IOException("no messages");
+        }
+        msgs[0] = ErrMsg.buffered(text, err);
+        head.readSymbols();
+        AstReader nodes = new AstReader(head.in, size, head);
+        ASTnode root = nodes.readTree();
+        if (!(root instanceof ProgramNode) || head.in.read() != -1) {
+            throw new IOException("not the AST of a program");
+        }
+        return (ProgramNode)root;
+    }
+
+    /**
+     * Read the nodes written by AstWriter.writeTree.
+     * @return the root
+     */
+    private ASTnode readTree() throws IOException {
+        // the subtrees read whose parent has not been read yet
+        List<ASTnode> stack = new ArrayList<ASTnode>();
+        String name;
+        while ((name = readName()) != null) {
+            int n = readCount();
+            if (n > stack.size()) {
+                throw new IOException("missing children of " + name);
+            }
+            List<ASTnode> top = stack.subList(stack.size() - n, stack.size());
+            ASTnode[] kids = top.toArray(new ASTnode[n]);
+            top.clear();
+            ASTnode node = node(name, kids);
+            node.read(this);
+            stack.add(node);
+        }
+        if (stack.size() != 1) {
+            throw new IOException("not a tree");
+        }
+        return stack.get(0);
+    }
+
+    /**
+     * Return a new node of the class with the given name, with the given
+     * children.
+     */
+    private static ASTnode node(String name, ASTnode[] kids)
+        throws IOException {
+        switch (name) {
+        case "ProgramNode":
+            expect(name, kids, 1);
+            return new ProgramNode((DeclListNode)kids[0]);
+        case "DeclListNode":
+            return new DeclListNode(list(kids, DeclNode.class));
+        case "FormalsListNode":
+            return new FormalsListNode(list(kids, FormalDeclNode.class));
+        case "FnBodyNode":
+            expect(name, kids, 2);
+            return new FnBodyNode((DeclListNode)kids[0],
+                                  (StmtListNode)kids[1]);
+        case "StmtListNode":
+            return new StmtListNode(list(kids, StmtNode.class));
+        case "ExpListNode":
+            return new ExpListNode(list(kids, ExpNode.class));
+        case "VarDeclNode":
+            expect(name, kids, 2);
+            return new VarDeclNode((TypeNode)kids[0], (IdNode)kids[1],
+                                   VarDeclNode.NOT_STRUCT);
+        case "FnDeclNode":
+            expect(name, kids, 4);
+            return new FnDeclNode((TypeNode)kids[0], (IdNode)kids[1],
+                                  (FormalsListNode)kids[2],
+                                  (FnBodyNode)kids[3]);
+        case "FormalDeclNode":
+            expect(name, kids, 2);
+            return new FormalDeclNode((TypeNode)kids[0], (IdNode)kids[1]);
+        case "StructDeclNode":
+            expect(name, kids, 2);
+            return new StructDeclNode((IdNode)kids[0],
+                                      (DeclListNode)kids[1]);
+        case "IntNode":
+            expect(name, kids, 0);
+            return new IntNode();
+        case "BoolNode":
+            expect(name, kids, 0);
+            return new BoolNode();
+        case "VoidNode":
+            expect(name, kids, 0);
+            return new VoidNode();
+        case "StructNode":
+            expect(name, kids, 1);
+            return new StructNode((IdNode)kids[0]);
+        case "AssignStmtNode":
+            expect(name, kids, 1);
+            return new AssignStmtNode((AssignNode)kids[0]);
+        case "PostIncStmtNode":
+            expect(name, kids, 1);
+            return new PostIncStmtNode((ExpNode)kids[0]);
+        case "PostDecStmtNode":
+            expect(name, kids, 1);
+            return new PostDecStmtNode((ExpNode)kids[0]);
+        case "ReadStmtNode":
+            expect(name, kids, 1);
+            return new ReadStmtNode((ExpNode)kids[0]);
+        case "WriteStmtNode":
+            expect(name, kids, 1);
+            return new WriteStmtNode((ExpNode)kids[0]);
+        case "IfStmtNode":
+            expect(name, kids, 3);
+            return new IfStmtNode((ExpNode)kids[0], (DeclListNode)kids[1],
+                                  (StmtListNode)kids[2]);
+        case "IfElseStmtNode":
+            expect(name, kids, 5);
+            return new IfElseStmtNode((ExpNode)kids[0],
+                                      (DeclListNode)kids[1],
+                                      (StmtListNode)kids[2],
+                                      (DeclListNode)kids[3],
+                                      (StmtListNode)kids[4]);
+        case "WhileStmtNode":
+            expect(name, kids, 3);
+            return new WhileStmtNode((ExpNode)kids[0], (DeclListNode)kids[1],
+                                     (StmtListNode)kids[2]);
+        case "CallStmtNode":
+            expect(name, kids, 1);
+            return new CallStmtNode((CallExpNode)kids[0]);
+        case "ReturnStmtNode":
+            if (kids.length == 0) {
+                return new ReturnStmtNode(null);
+            }
+            expect(name, kids, 1);
+            return new ReturnStmtNode((ExpNode)kids[0]);
+        case "IntLitNode":
+            expect(name, kids, 0);
+            return new IntLitNode(0, 0, 0);
+        case "StringLitNode":
+            expect(name, kids, 0);
+            return new StringLitNode(0, 0, null);
+        case "TrueNode":
+            expect(name, kids, 0);
+            return new TrueNode(0, 0);
+        case "FalseNode":
+            expect(name, kids, 0);
+            return new FalseNode(0, 0);
+        case "IdNode":
+            expect(name, kids, 0);
+            return new IdNode(0, 0, null);
+        case "DotAccessExpNode":
+            expect(name, kids, 2);
+            return new DotAccessExpNode((ExpNode)kids[0], (IdNode)kids[1]);
+        case "AssignNode":
+            expect(name, kids, 2);
+            return new AssignNode((ExpNode)kids[0], (ExpNode)kids[1]);
+        case "CallExpNode":
+            expect(name, kids, 2);
+            return new CallExpNode((IdNode)kids[0], (ExpListNode)kids[1]);
+        case "UnaryMinusNode":
+            expect(name, kids, 1);
+            return new UnaryMinusNode((ExpNode)kids[0]);
+        case "NotNode":
+            expect(name, kids, 1);
+            return new NotNode((ExpNode)kids[0]);
+        }
+
+        expect(name, kids, 2);
+        ExpNode exp1 = (ExpNode)kids[0];
+        ExpNode exp2 = (ExpNode)kids[1];
+        switch (name) {
+        case "PlusNode":
+            return new PlusNode(exp1, exp2);
+        case "MinusNode":
+            return new MinusNode(exp1, exp2);
+        case "TimesNode":
+            return new TimesNode(exp1, exp2);
+        case "DivideNode":
+            return new DivideNode(exp1, exp2);
+        case "AndNode":
+            return new AndNode(exp1, exp2);
+        case "OrNode":
+            return new OrNode(exp1, exp2);
+        case "EqualsNode":
+            return new EqualsNode(exp1, exp2);
+        case "NotEqualsNode":
+            return new NotEqualsNode(exp1, exp2);
+        case "LessNode":
+            return new LessNode(exp1, exp2);
+        case "GreaterNode":
+            return new GreaterNode(exp1, exp2);
+        case "LessEqNode":
+            return new LessEqNode(exp1, exp2);
+        case "GreaterEqNode":
+            return new GreaterEqNode(exp1, exp2);
+        }
+        throw new IOException("unknown node " + name);
+    }
+
+    private static void expect(String name, ASTnode[] kids, int n)
+        throws IOException {
+        if (kids.length != n) {
+            throw new IOException(name + " with " + kids.length +
+                                  " children");
+        }
+    }
+
+    private static <T> List<T> list(ASTnode[] kids, Class<T> c) {
+        List<T> list = new ArrayList<T>(kids.length);
+        for (ASTnode kid : kids) {
+            list.add(c.cast(kid));
+        }
+        return list;
+    }
+
+    /**
+     * Read the symbols and tables written by AstWriter.writeSymbols. A
+     * symbol or table can refer to a symbol that comes after it, so the
+     * links to symbols are made once all have been read.
+     */
+    private void readSymbols() throws IOException {
+        // struct variables, and the number of their struct's symbol
+        List<IdNode> structs = new ArrayList<IdNode>();
+        List<Integer> structDefs = new ArrayList<Integer>();
+        // the entries of each table: names and numbers of symbols
+        List<String> entryNames = new ArrayList<String>();
+        List<Integer> entrySyms = new ArrayList<Integer>();
+        List<Integer> scopeSizes = new ArrayList<Integer>();
+        List<Integer> tableScopes = new ArrayList<Integer>();
+
+        int record;
+        while ((record = readInt()) != AstWriter.END) {
+            if (record == AstWriter.TABLE) {
+                int scopes = readCount();
+                tables.add(new SymTable());
+                tableScopes.add(scopes);
+                for (int k = 0; k < scopes; k++) {
+                    int entries = readCount();
+                    scopeSizes.add(entries);
+                    for (int e = 0; e < entries; e++) {
+                        entryNames.add(readString());
+                        entrySyms.add(readCount());
+                    }
+                }
+                continue;
+            }
+            if (record != AstWriter.SYM) {
+                throw new IOException("bad record " + record);
+            }
+
+            SemSym sym;
+            int kind = readInt();
+            if (kind == AstWriter.FN_SYM) {
+                Type returnType = readType();
+                FnSym fn = new FnSym(returnType, readInt());
+                int params = readCount();
+                if (params > 0) {
+                    List<Type> types = new ArrayList<Type>();
+                    for (int k = 1; k < params; k++) {
+                        types.add(readType());
+                    }
+                    fn.addFormals(types);
+                }
+                sym = fn;
+            } else if (kind == AstWriter.STRUCT_SYM) {
+                IdNode struct = new IdNode(0, 0, readString());
+                structs.add(struct);
+                structDefs.add(readCount());
+                sym = new StructSym(struct);
+            } else if (kind == AstWriter.STRUCT_DEF_SYM) {
+                sym = new StructDefSym(readTable());
+            } else if (kind == AstWriter.VAR_SYM) {
+                sym = new SemSym(readType());
+            } else {
+                throw new IOException("bad symbol " + kind);
+            }
+            sym.setOffSet(readInt());
+            if (!readBoolean()) {
+                sym.makeGlobal();
+            }
+            syms.add(sym);
+        }
+
+        for (int k = 0; k < structs.size(); k++) {
+            structs.get(k).link(sym(structDefs.get(k)));
+        }
+        int scope = 0;
+        int entry = 0;
+        for (int t = 0; t < tableScopes.size(); t++) {
+            SymTable table = tables.get(t);
+            for (int k = 0; k < tableScopes.get(t); k++) {
+                if (k > 0) {
+                    table.addScope();
+                }
+                for (int e = scopeSizes.get(scope++); e > 0; e--, entry++) {
+                    try {
+                        table.addDecl(entryNames.get(entry),
+                                      sym(entrySyms.get(entry)));
+                    } catch (DuplicateSymException ex) {
+                        throw new IOException("duplicate symbol");
+                    } catch (EmptySymTableException ex) {
+                        throw new IOException("empty symbol table");
+                    } catch (NullPointerException ex) {
+                        throw new IOException("null symbol");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an int written by AstWriter.writeInt.
+     */
+    public int readInt() throws IOException {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("bad number");
+            }
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Read a number of things, which cannot be negative or larger than
+     * the file.
+     */
+    private int readCount() throws IOException {
+        int n = readInt();
+        if (n < 0 || n > size) {
+            throw new IOException("bad count " + n);
+        }
+        return n;
+    }
+
+    /**
+     * Read a line number written by AstWriter.writeLine.
+     */
+    public int readLine() throws IOException {
+        lastLine += readInt();
+        return lastLine;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readInt() != 0;
+    }
+
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > size) {
+            throw new IOException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Read a name written by AstWriter.writeName, or return null for the
+     * end of the tree.
+     */
+    public String readName() throws IOException {
+        int number = readCount();
+        if (number == 0) {
+            return null;
+        }
+        if (number == names.size() + 1) {
+            String name = readString();
+            if (name == null) {
+                throw new IOException("null name");
+            }
+            names.add(name);
+        }
+        if (number > names.size()) {
+            throw new IOException("bad name " + number);
+        }
+        return names.get(number - 1);
+    }
+
+    public SemSym readSym() throws IOException {
+        return sym(readCount());
+    }
+
+    private SemSym sym(int number) throws IOException {
+        if (number == 0) {
+            return null;
+        }
+        if (number > syms.size()) {
+            throw new IOException("bad symbol " + number);
+        }
+        return syms.get(number - 1);
+    }
+
+    public SymTable readTable() throws IOException {
+        int number = readCount();
+        if (number == 0) {
+            return null;
+        }
+        if (number > tables.size()) {
+            throw new IOException("bad table " + number);
+        }
+        return tables.get(number - 1);
+    }
+
+    public Type readType() throws IOException {
+        int kind = readInt();
+        switch (kind) {
+        case 0:
+            return null;
+        case 1:
+            return new ErrorType();
+        case 2:
+            return new IntType();
+        case 3:
+            return new BoolType();
+        case 4:
+            return new VoidType();
+        case 5:
+            return new StringType();
+        case 6:
+            return new FnType();
+        case 7:
+            return new StructDefType();
+        case 8:
+            String name = readName();
+            if (name == null) {
+                throw new IOException("struct type without a name");
+            }
+            return new StructType(new IdNode(0, 0, name));
+        }
+        throw new IOException("bad type " + kind);
+    }
+}
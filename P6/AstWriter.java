@@ -0,0 +1,326 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The AstWriter class writes an analyzed AST, with the symbols it is
+ * linked to and the messages reported while analyzing it, in the binary
+ * form kept by AstCache and read back by AstReader.
+ *
+ * The file holds, after a magic number,
+ *   - the messages (whether there was an error, then the text),
+ *   - the symbols and symbol tables, each once, numbered in the order
+ *     they are first referred to (so the tree can refer to them by
+ *     number; a table comes before the symbols that refer to it), and
+ *   - the nodes of the tree in post-order: each node's class, its number
+ *     of children (whose subtrees are written just before it) and the
+ *     fields it writes itself (ASTnode.write).
+ * Numbers are written as variable-length ints of 7 bits a byte, line
+ * numbers as the difference from the previous one, and names of classes
+ * and IDs only the first time they occur. Fields that only name analysis
+ * uses on its way down (the offsets handed to lists and statements) are
+ * not written, as a tree read back is never analyzed again.
+ *
+ * The tree is walked without recursion, so that how deeply it is nested
+ * does not matter.
+ */
+class AstWriter {
+    static final int MAGIC = 0x43415354;  // "CAST"
+
+    // the kinds of record in the symbol part, and of symbol
+    static final int END = 0;
+    static final int SYM = 1;
+    static final int TABLE = 2;
+    static final int VAR_SYM = 1;
+    static final int FN_SYM = 2;
+    static final int STRUCT_SYM = 3;
+    static final int STRUCT_DEF_SYM = 4;
+
+    // the symbols and tables referred to, and their numbers (from 1; 0
+    // stands for null), shared by the parts of the file
+    private List<SemSym> syms;
+    private Map<SemSym, Integer> symNumbers;
+    private List<SymTable> tables;
+    private Map<SymTable, Integer> tableNumbers;
+
+    private DataOutputStream out;
+    // names written by this writer, and their numbers (from 1)
+    private Map<String, Integer> names = new HashMap<String, Integer>();
+    private int lastLine = 0;  // see writeLine
+
+    private AstWriter(DataOutputStream out, AstWriter shared) {
+        this.out = out;
+        if (shared == null) {
+            syms = new ArrayList<SemSym>();
+            symNumbers = new IdentityHashMap<SemSym, Integer>();
+            tables = new ArrayList<SymTable>();
+            tableNumbers = new IdentityHashMap<SymTable, Integer>();
+        } else {
+            syms = shared.syms;
+            symNumbers = shared.symNumbers;
+            tables = shared.tables;
+            tableNumbers = shared.tableNumbers;
+        }
+    }
+
+    /**
+     * Write root, analyzed, and the messages reported up to then to out.
+     */
+    public static void write(ProgramNode root, ErrMsg msgs, OutputStream out)
+        throws IOException {
+        // the tree is written first, to find the symbols it refers to
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        AstWriter nodes = new AstWriter(new DataOutputStream(tree), null);
+        nodes.writeTree(root);
+        nodes.out.flush();
+
+        AstWriter head = new AstWriter(new DataOutputStream(out), nodes);
+        head.out.writeInt(MAGIC);
+        head.writeBoolean(msgs.hasError());
+        head.writeString(msgs.text());
+        head.writeSymbols();
+        tree.writeTo(head.out);
+        head.out.flush();
+    }
+
+    /**
+     * A node on the path from the root to the node being written, and
+     * its children.
+     */
+    private static class Step {
+        ASTnode node;
+        List<ASTnode> kids;
+        int next = 0;  // the first child not written yet
+
+        Step(ASTnode node) {
+            this.node = node;
+            kids = children(node);
+        }
+    }
+
+    /**
+     * Write the nodes of the tree rooted at root in post-order.
+     */
+    private void writeTree(ASTnode root) throws IOException {
+        List<Step> path = new ArrayList<Step>();
+        path.add(new Step(root));
+        while (!path.isEmpty()) {
+            Step step = path.get(path.size() - 1);
+            if (step.next < step.kids.size()) {
+                path.add(new Step(step.kids.get(step.next++)));
+                continue;
+            }
+            path.remove(path.size() - 1);
+            writeName(step.node.getClass().getName());
+            writeInt(step.kids.size());
+            step.node.write(this);
+        }
+        writeInt(0);  // no more nodes
+    }
+
+    /**
+     * Return the children of node, in the order ASTnode.accept visits
+     * them.
+     */
+    private static List<ASTnode> children(ASTnode node) {
+        final List<ASTnode> kids = new ArrayList<ASTnode>();
+        node.visitChildren(new ASTVisitor() {
+            public boolean preVisit(ASTnode child) {
+                kids.add(child);
+                return false;
+            }
+
+            public void postVisit(ASTnode child) { }
+        });
+        return kids;
+    }
+
+    /**
+     * Write each symbol and table referred to so far, and those they
+     * refer to in turn. A table is written before the symbols that refer
+     * to it (a symbol can refer to symbols that come after it).
+     */
+    private void writeSymbols() throws IOException {
+        int nextSym = 0;
+        int nextTable = 0;
+        while (nextSym < syms.size() || nextTable < tables.size()) {
+            if (nextTable < tables.size()) {
+                writeInt(TABLE);
+                writeScopes(tables.get(nextTable++));
+                continue;
+            }
+            SemSym sym = syms.get(nextSym);
+            if (sym instanceof StructDefSym &&
+                number(((StructDefSym)sym).getSymTable()) > nextTable) {
+                continue;  // write its table first
+            }
+            writeInt(SYM);
+            writeSymbol(sym);
+            nextSym++;
+        }
+        writeInt(END);
+    }
+
+    private void writeSymbol(SemSym sym) throws IOException {
+        if (sym instanceof FnSym) {
+            FnSym fn = (FnSym)sym;
+            writeInt(FN_SYM);
+            writeType(fn.getReturnType());
+            writeInt(fn.getNumParams());
+            List<Type> params = fn.getParamTypes();
+            writeInt((params == null) ? 0 : params.size() + 1);
+            if (params != null) {
+                for (Type type : params) {
+                    writeType(type);
+                }
+            }
+        } else if (sym instanceof StructSym) {
+            IdNode struct = ((StructSym)sym).getStructType();
+            writeInt(STRUCT_SYM);
+            writeString(struct.name());
+            writeSym(struct.sym());
+        } else if (sym instanceof StructDefSym) {
+            writeInt(STRUCT_DEF_SYM);
+            writeTable(((StructDefSym)sym).getSymTable());
+        } else {
+            writeInt(VAR_SYM);
+            writeType(sym.getType());
+        }
+        writeInt(sym.getOffSet());
+        writeBoolean(sym.isLocal());
+    }
+
+    /**
+     * Write the scopes of table, outermost first.
+     */
+    private void writeScopes(SymTable table) throws IOException {
+        List<HashMap<String, SemSym>> scopes = table.scopes();
+        writeInt(scopes.size());
+        for (int k = scopes.size() - 1; k >= 0; k--) {
+            writeInt(scopes.get(k).size());
+            for (Map.Entry<String, SemSym> entry : scopes.get(k).entrySet()) {
+                writeString(entry.getKey());
+                writeSym(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Write an int (zigzag-encoded, so that small negative numbers are
+     * short too).
+     */
+    public void writeInt(int n) throws IOException {
+        int v = (n << 1) ^ (n >> 31);
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    /**
+     * Write a line number, as the difference from the one written last
+     * (which is usually small, as the tree is written in source order).
+     */
+    public void writeLine(int line) throws IOException {
+        writeInt(line - lastLine);
+        lastLine = line;
+    }
+
+    public void writeBoolean(boolean b) throws IOException {
+        writeInt(b ? 1 : 0);
+    }
+
+    /**
+     * Write a string, which may be null.
+     */
+    public void writeString(String s) throws IOException {
+        if (s == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write a name (of a class or an ID): the first time, its number and
+     * the name itself; afterwards, only its number.
+     */
+    public void writeName(String name) throws IOException {
+        Integer number = names.get(name);
+        if (number != null) {
+            writeInt(number);
+            return;
+        }
+        names.put(name, names.size() + 1);
+        writeInt(names.size());
+        writeString(name);
+    }
+
+    /**
+     * Write a reference to sym, which may be null.
+     */
+    public void writeSym(SemSym sym) throws IOException {
+        if (sym == null) {
+            writeInt(0);
+            return;
+        }
+        Integer number = symNumbers.get(sym);
+        if (number == null) {
+            syms.add(sym);
+            number = syms.size();
+            symNumbers.put(sym, number);
+        }
+        writeInt(number);
+    }
+
+    /**
+     * Write a reference to table, which may be null.
+     */
+    public void writeTable(SymTable table) throws IOException {
+        writeInt((table == null) ? 0 : number(table));
+    }
+
+    /**
+     * Return the number of table, numbering it if it has none yet.
+     */
+    private int number(SymTable table) {
+        Integer number = tableNumbers.get(table);
+        if (number == null) {
+            tables.add(table);
+            number = tables.size();
+            tableNumbers.put(table, number);
+        }
+        return number;
+    }
+
+    /**
+     * Write a type, which may be null. Types are values: only what kind
+     * of type it is, and the name of a struct type, is written.
+     */
+    public void writeType(Type type) throws IOException {
+        if (type == null) {
+            writeInt(0);
+        } else if (type.isErrorType()) {
+            writeInt(1);
+        } else if (type.isIntType()) {
+            writeInt(2);
+        } else if (type.isBoolType()) {
+            writeInt(3);
+        } else if (type.isVoidType()) {
+            writeInt(4);
+        } else if (type.isStringType()) {
+            writeInt(5);
+        } else if (type.isFnType()) {
+            writeInt(6);
+        } else if (type.isStructDefType()) {
+            writeInt(7);
+        } else if (type.isStructType()) {
+            writeInt(8);
+            writeName(type.toString());
+        } else {
+            throw new IllegalArgumentException("unknown type " + type);
+        }
+    }
+}
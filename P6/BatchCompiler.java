@@ -0,0 +1,224 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * The BatchCompiler class compiles many source files in one JVM (P6
+ * --batch). Each file foo.cimple is compiled to foo.s beside it; a
+ * directory stands for every .cimple file under it. Up to a given number
+ * of files are compiled at the same time, each on a thread of its own,
+ * by one CimpleCompiler.
+ *
+ * As each file is done, its messages (prefixed with its name) and a line
+ * saying how it went are printed together; at the end, a line with the
+ * totals and the throughput.
+ */
+class BatchCompiler {
+    private CimpleCompiler compiler;
+    private int parallelism;
+    private boolean mapInput = false;
+    private boolean timePasses = false;
+    private PrintStream out = System.out;
+
+    // totals, guarded by this
+    private int compiled = 0;
+    private int failed = 0;
+    private int withErrors = 0;
+    private long bytes = 0;
+
+    public BatchCompiler(CimpleCompiler compiler, int parallelism) {
+        this.compiler = compiler;
+        this.parallelism = parallelism;
+    }
+
+    public void setMapInput(boolean map) {
+        mapInput = map;
+    }
+
+    public void setTimePasses(boolean time) {
+        timePasses = time;
+    }
+
+    /**
+     * Compile the named files, and the files in the named directories.
+     * @return false if a file could not be compiled (could not be read or
+     *         written, had a syntax error, its compilation was abandoned,
+     *         or the compiler failed on it, even with an Error such as
+     *         StackOverflowError; the other files are still compiled)
+     */
+    public boolean run(List<String> names) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        for (String name : names) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                List<Path> found = new ArrayList<Path>();
+                try (Stream<Path> walk = Files.walk(path)) {
+                    Iterator<Path> it = walk.iterator();
+                    while (it.hasNext()) {
+                        Path p = it.next();
+                        if (p.toString().endsWith(".cimple") &&
+                            Files.isRegularFile(p)) {
+                            found.add(p);
+                        }
+                    }
+                }
+                Collections.sort(found);
+                files.addAll(found);
+            }
+            else {
+                files.add(path);
+            }
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (final Path file : files) {
+                tasks.add(pool.submit(new Runnable() {
+                    public void run() {
+                        compile(file);
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    // compile failed outside the file's own compilation;
+                    // count it, and go on with the others
+                    synchronized (this) {
+                        out.println("internal error: " + e.getCause());
+                        failed++;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        synchronized (this) {
+            out.printf("%d files (%d ok, %d with errors, %d failed), " +
+                       "%.1f KB in %.3f s: %.1f files/s, %.1f KB/s%n",
+                       files.size(), compiled - withErrors, withErrors,
+                       failed, bytes / 1024.0, secs, files.size() / secs,
+                       bytes / 1024.0 / secs);
+            return failed == 0;
+        }
+    }
+
+    /**
+     * Compile one file and report how it went.
+     */
+    private void compile(Path file) {
+        long start = System.nanoTime();
+        String name = file.toString();
+        String base = name.endsWith(".cimple")
+            ? name.substring(0, name.length() - ".cimple".length()) : name;
+        StringBuilder report = new StringBuilder();
+
+        CimpleCompiler.Result result = null;
+        long size = 0;
+        Reader in = null;
+        PrintWriter code = null;
+        try {
+            size = Files.size(file);
+            CharSequence text = null;
+            if (mapInput) {
+                text = MappedSource.map(name);
+            }
+            else {
+                in = new FileReader(name);
+            }
+            code = new PrintWriter(base + ".s");
+            result = (text != null) ? compiler.compile(text, code)
+                : compiler.compile(in, code);
+            if (result.moduleInterface() != null) {
+                result.moduleInterface().write(
+                    new File(ModuleInterface.fileFor(base + ".s")));
+            }
+        } catch (IOException e) {
+            report.append(name + ": " + e + System.lineSeparator());
+            result = null;
+        } catch (RuntimeException e) {  // a bug in the compiler
+            report.append(name + ": internal error: " + e +
+                          System.lineSeparator());
+            result = null;
+        } catch (Error e) {  // e.g., a program nested too deeply to analyze
+            report.append(name + ": internal error: " + e +
+                          System.lineSeparator());
+            result = null;
+        } finally {
+            if (code != null) {
+                code.close();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        double ms = (System.nanoTime() - start) / 1e6;
+
+        if (result != null) {
+            BufferedReader msgs = new BufferedReader(
+                new StringReader(result.diagnostics()));
+            try {
+                String line;
+                while ((line = msgs.readLine()) != null) {
+                    report.append(name + ":" + line + System.lineSeparator());
+                }
+            } catch (IOException e) {
+                // not from a StringReader
+            }
+            report.append(String.format("%s: %s, %.3f ms%n", name,
+                                        outcome(result.code()), ms));
+            if (timePasses) {
+                for (Map.Entry<String, Long> e : result.times().entrySet()) {
+                    report.append(String.format("    %-16s %10.3f ms%n",
+                        e.getKey(), e.getValue() / 1e6));
+                }
+            }
+            if (result.stats() != null) {
+                report.append(result.stats());
+            }
+        }
+
+        synchronized (this) {
+            out.print(report);
+            out.flush();
+            bytes += size;
+            if (result == null ||
+                result.code() == CimpleCompiler.RESULT_SYNTAX_ERROR ||
+                result.code() == CimpleCompiler.RESULT_OTHER_ERROR) {
+                failed++;
+            }
+            else {
+                compiled++;
+                if (result.code() == CimpleCompiler.RESULT_TYPE_ERROR) {
+                    withErrors++;
+                }
+            }
+        }
+    }
+
+    private static String outcome(int code) {
+        switch (code) {
+        case CimpleCompiler.RESULT_CORRECT:
+            return "ok";
+        case CimpleCompiler.RESULT_SYNTAX_ERROR:
+            return "syntax error";
+        case CimpleCompiler.RESULT_TYPE_ERROR:
+            return "errors";
+        default:
+            return "abandoned";
+        }
+    }
+}
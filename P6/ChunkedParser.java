@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import java_cup.runtime.*;
+
+/**
+ * The ChunkedParser class parses a program by splitting its tokens into
+ * runs of top-level declarations and parsing the runs in parallel, each
+ * with a parser of its own. A top-level declaration ends at a ';' or a '}'
+ * at brace depth 0, except that a '}' followed by ';' (the end of a struct
+ * definition) ends at the ';'.
+ *
+ * The whole file is scanned first, into a TokenBuffer. Messages from the
+ * scanner are replayed in order once the parse is done, so ErrMsg output is
+ * the same as for a serial parse. If any chunk fails to parse, the tokens
+ * are parsed again by a single parser that replays the scanner messages as
+ * it goes, so that syntax errors are reported exactly as the serial parser
+ * reports them.
+ */
+class ChunkedParser {
+    // fewest top-level declarations worth giving a parser of their own
+    private static final int MIN_CHUNK = 64;
+
+    // every token of the file, ending with EOF
+    private TokenBuffer tokens;
+    // index of the token after the end of each top-level declaration
+    private List<Integer> declEnds = new ArrayList<Integer>();
+    // true if the braces do not nest properly (no chunking possible)
+    private boolean unbalanced = false;
+    // parse with DescentParser instead of the CUP parser
+    private boolean descent;
+
+    public ChunkedParser(TokenBuffer tokens, boolean descent) {
+        this.tokens = tokens;
+        this.descent = descent;
+        findDecls();
+    }
+
+    /**
+     * Note where each top-level declaration ends.
+     */
+    private void findDecls() {
+        int depth = 0;
+        boolean closedDecl = false;  // last token was a '}' at depth 0
+        for (int k = 0; k < tokens.size(); k++) {
+            int kind = tokens.kind(k);
+            if (closedDecl && kind != sym.SEMICOLON) {
+                declEnds.add(k);
+            }
+            closedDecl = false;
+
+            if (kind == sym.LCURLY) {
+                depth++;
+            }
+            else if (kind == sym.RCURLY) {
+                depth--;
+                if (depth < 0) {
+                    unbalanced = true;
+                }
+                closedDecl = (depth == 0);
+            }
+            else if (kind == sym.SEMICOLON && depth == 0) {
+                declEnds.add(k + 1);
+            }
+        }
+
+        // anything after the last complete declaration is one more
+        // (incomplete) declaration
+        int eof = tokens.size() - 1;
+        if (declEnds.isEmpty() || declEnds.get(declEnds.size() - 1) < eof) {
+            declEnds.add(eof);
+        }
+    }
+
+    /**
+     * Parse the tokens using the given pool.
+     * @return the Symbol for the root nonterminal, as parser.parse would
+     */
+    public Symbol parse(ForkJoinPool pool) throws Exception {
+        int perChunk = Math.max(MIN_CHUNK,
+            (declEnds.size() + 4 * pool.getParallelism() - 1) /
+            (4 * pool.getParallelism()));
+        if (unbalanced || declEnds.size() <= perChunk) {
+            return parseSerially();
+        }
+
+        List<ForkJoinTask<DeclListNode>> tasks =
+            new ArrayList<ForkJoinTask<DeclListNode>>();
+        for (int first = 0; first < declEnds.size(); first += perChunk) {
+            int last = Math.min(first + perChunk, declEnds.size()) - 1;
+            final int start = (first == 0) ? 0 : declEnds.get(first - 1);
+            final int end = declEnds.get(last);
+            tasks.add(pool.submit(new Callable<DeclListNode>() {
+                public DeclListNode call() {
+                    return parseChunk(start, end);
+                }
+            }));
+        }
+
+        List<DeclListNode> lists = new ArrayList<DeclListNode>();
+        int size = 0;
+        for (ForkJoinTask<DeclListNode> task : tasks) {
+            DeclListNode list = task.join();
+            if (list == null) {
+                return parseSerially();
+            }
+            lists.add(list);
+            size += list.size();
+        }
+
+        tokens.replayMessages();
+        return new Symbol(sym.EOF,
+            new ProgramNode(new DeclListNode(lists, size)));
+    }
+
+    /**
+     * Parse the tokens [start, end) as a list of declarations.
+     * @return the declarations, or null if there was a syntax error
+     */
+    private DeclListNode parseChunk(int start, int end) {
+        ErrMsg old = ErrMsg.install(ErrMsg.buffered());  // not reported
+        try {
+            Symbol root = parse(tokens.scanner(start, end, false));
+            return ((ProgramNode)root.value).declList();
+        } catch (Exception e) {
+            return null;
+        } finally {
+            ErrMsg.install(old);
+        }
+    }
+
+    /**
+     * Parse all the tokens with one parser, reporting scanner messages
+     * (and any syntax error) as they are reached.
+     */
+    private Symbol parseSerially() throws Exception {
+        return parse(tokens.scanner());
+    }
+
+    private Symbol parse(Scanner scanner) throws Exception {
+        if (descent) {
+            return new DescentParser(scanner).parse();
+        }
+        return new parser(scanner).parse();
+    }
+}
@@ -0,0 +1,701 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import java_cup.runtime.*;
+
+/**
+ * The CimpleCompiler class compiles cimple programs to MIPS assembly
+ * without touching anything but the source it is given and the writer it
+ * is told to write to, so that one JVM can compile any number of programs,
+ * one after another or at the same time on different threads:
+ *
+ *     CimpleCompiler compiler = new CimpleCompiler();
+ *     compiler.setJobs(4);
+ *     CimpleCompiler.Result result = compiler.compile(text);
+ *     if (result.code() == CimpleCompiler.RESULT_CORRECT) {
+ *         ... result.assembly() ...
+ *     }
+ *
+ * The state of a compilation (the messages reported so far, the pass
+ * timings, the code generator and its labels, the symbol tables) belongs
+ * to that compilation alone. Messages are collected by a buffered ErrMsg
+ * installed for the calling thread while the compilation runs, and are
+ * returned in the Result instead of being printed; a compilation that has
+ * to be abandoned (a syntax error, no main function, an internal error)
+ * ends with a Result saying so rather than by exiting.
+ *
+ * With setStats, a compilation also measures the wall time, CPU time and
+ * allocation of each phase, and counts the tokens, AST nodes, symbols,
+ * instructions and labels (see {@link CompileStats}). The source is then
+ * scanned in full before it is parsed, so that scanning is measured
+ * apart from parsing.
+ *
+ * With setAstCacheDir, the analyzed AST of each source is kept, and a
+ * source that has been compiled before only has its code generated (see
+ * {@link AstCache}).
+ *
+ * With setUnit, a program is compiled as one unit of a program made of
+ * several, to be linked by the Linker: it need not have a main function,
+ * its string literals are left for the Linker to write out, and its
+ * interface is returned with the result; with addInterface, a unit can
+ * use what other units declare (see {@link ModuleInterface}).
+ *
+ * With setStreaming, each top-level declaration is compiled as soon as it
+ * is parsed and then dropped (see {@link StreamCompiler}), so that huge
+ * sources can be compiled in little memory. Streaming compilations are
+ * serial, are not measured by setStats, and are not used for units.
+ *
+ * The settings (scanner, parser, passes to skip, jobs, caches, stats,
+ * streaming, units) should be
+ * made before compiling; a compiler can then be shared by any number of
+ * threads. The pool and the cache are shared by the compilations that
+ * use them.
+ */
+public class CimpleCompiler {
+	public static final int RESULT_CORRECT = 0;
+	public static final int RESULT_SYNTAX_ERROR = 1;
+	public static final int RESULT_TYPE_ERROR = 2;
+	public static final int RESULT_OTHER_ERROR = -1;
+
+	private Set<String> skipped = new HashSet<String>();
+	private ForkJoinPool pool = null;	// null: run serially
+	private CodeCache cache = null;		// null: generate every function
+	private AstCache astCache = null;	// null: analyze every source
+	private ScannerFactory scanners = ScannerFactory.JLEX;
+	private boolean descentParser = false;	// DescentParser, not CUP's
+	private String statsFormat = null;	// text or json; null: no stats
+	private boolean streaming = false;
+	private boolean unit = false;		// compile as a unit, to be linked
+	private boolean eliminateDead = false;
+	private boolean optimizeFrames = false;
+	private boolean delaySlots = false;
+	private List<ModuleInterface> interfaces =
+		new ArrayList<ModuleInterface>();
+
+	/**
+	 * Do not run the named compiler pass
+	 * @param name one of nameAnalysis, typeCheck, codeGen
+	 */
+	public void skipPass(String name){
+		skipped.add(name);
+	}
+
+	/**
+	 * Number of declarations to parse, type check and generate code for
+	 * in parallel
+	 * @param jobs parallelism; 1 (the default) runs everything serially
+	 */
+	public void setJobs(int jobs){
+		pool = (jobs > 1) ? new ForkJoinPool(jobs) : null;
+	}
+
+	/**
+	 * Directory in which to keep the code generated for each function,
+	 * so that unchanged functions are not generated again
+	 * @param dirname cache directory (created if necessary)
+	 */
+	public void setCacheDir(String dirname) throws IOException{
+		cache = new CodeCache(new File(dirname));
+	}
+
+	/**
+	 * Directory in which to keep the analyzed AST of each source, so that
+	 * a source compiled before is not scanned, parsed or analyzed again
+	 * @param dirname cache directory (created if necessary)
+	 */
+	public void setAstCacheDir(String dirname) throws IOException{
+		astCache = new AstCache(new File(dirname));
+	}
+
+	/**
+	 * Scanner to use for the source
+	 * @param name jlex for the scanner generated from cimple.jlex (the
+	 *        default), or hand for {@link CimpleScanner}
+	 * @return false if there is no scanner with that name
+	 */
+	public boolean setScanner(String name){
+		ScannerFactory factory = ScannerFactory.forName(name);
+		if (factory == null) {
+			return false;
+		}
+		scanners = factory;
+		return true;
+	}
+
+	/**
+	 * Parser to use for the source
+	 * @param name cup for the parser generated from cimple.cup (the
+	 *        default), or rd for {@link DescentParser}
+	 * @return false if there is no parser with that name
+	 */
+	public boolean setParser(String name){
+		if (name.equals("cup")) {
+			descentParser = false;
+		} else if (name.equals("rd")) {
+			descentParser = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Measure each phase of every compilation (see {@link Result#stats})
+	 * @param format text or json, the form in which the stats print; or
+	 *        null for no stats (the default)
+	 * @return false if there is no such format
+	 */
+	public boolean setStats(String format){
+		if (format != null && !format.equals("text")
+				&& !format.equals("json")) {
+			return false;
+		}
+		statsFormat = format;
+		return true;
+	}
+
+	/**
+	 * Compile each top-level declaration as soon as it is parsed, keeping
+	 * only the global symbol table and the string literals of the whole
+	 * program (see {@link StreamCompiler})
+	 * @param stream true to stream; false (the default) to build the
+	 *        whole AST first
+	 */
+	public void setStreaming(boolean stream){
+		streaming = stream;
+	}
+
+	/**
+	 * Leave out of the code the functions and globals that cannot be
+	 * reached from main, and the string literals only they use (see
+	 * {@link DeadCode}); not done for units or when streaming
+	 * @param eliminate true to leave them out; false (the default) to
+	 *        generate code for every declaration
+	 */
+	public void setEliminateDead(boolean eliminate){
+		eliminateDead = eliminate;
+	}
+
+	/**
+	 * Generate functions with a frame allocated by one instruction and no
+	 * frame pointer, and without saving RA in functions that call no
+	 * other (see {@link Codegen#setOptimizeFrames})
+	 * @param optimize true to optimize frames; false (the default) to
+	 *        push RA and FP and address the frame relative to FP
+	 */
+	public void setOptimizeFrames(boolean optimize){
+		optimizeFrames = optimize;
+	}
+
+	/**
+	 * Generate code for a MIPS with branch and load delay slots: fill the
+	 * slots with independent instructions, or nops (see
+	 * {@link DelaySlots})
+	 * @param schedule true to fill the slots; false (the default) to
+	 *        leave them to the assembler
+	 */
+	public void setDelaySlots(boolean schedule){
+		delaySlots = schedule;
+	}
+
+	/**
+	 * Compile programs as units of a larger program, to be linked by
+	 * the Linker (see the class comment)
+	 * @param isUnit true to compile units; false (the default) to
+	 *        compile whole programs
+	 */
+	public void setUnit(boolean isUnit){
+		unit = isUnit;
+	}
+
+	/**
+	 * Let the units compiled use the names declared by the interface in
+	 * the given file; implies setUnit(true)
+	 * @throws IOException if the file cannot be read or is not an
+	 *         interface
+	 * @throws IllegalArgumentException if it declares a name that an
+	 *         interface added before also declares
+	 */
+	public void addInterface(String filename) throws IOException{
+		ModuleInterface iface = ModuleInterface.read(new File(filename));
+		Set<String> names = new HashSet<String>(iface.names());
+		for (ModuleInterface other : interfaces) {
+			for (String name : other.names()) {
+				if (names.contains(name)) {
+					throw new IllegalArgumentException(name +
+						" is declared by more than one interface");
+				}
+			}
+		}
+		interfaces.add(iface);
+		unit = true;
+	}
+
+	/**
+	 * Apply a command-line option: --skip=<pass>, --jobs=<n>,
+	 * --incremental=<dir>, --ast-cache=<dir>, --scanner=<name>,
+	 * --parser=<name>, --stats[=text|json], --stream, --unit,
+	 * --use=<file>[,<file>...], --eliminate-dead, --optimize-frames or
+	 * --delay-slots
+	 * @return false if opt is not one of these
+	 * @throws IllegalArgumentException if the value of opt is bad
+	 * @throws IOException if the cache directory cannot be used
+	 */
+	public boolean setOption(String opt) throws IOException{
+		if (opt.startsWith("--skip=")) {
+			skipPass(opt.substring("--skip=".length()));
+		} else if (opt.startsWith("--incremental=")) {
+			setCacheDir(opt.substring("--incremental=".length()));
+		} else if (opt.startsWith("--ast-cache=")) {
+			setAstCacheDir(opt.substring("--ast-cache=".length()));
+		} else if (opt.startsWith("--parser=")) {
+			if (!setParser(opt.substring("--parser=".length()))) {
+				throw new IllegalArgumentException("unknown parser in " + opt);
+			}
+		} else if (opt.startsWith("--scanner=")) {
+			if (!setScanner(opt.substring("--scanner=".length()))) {
+				throw new IllegalArgumentException("unknown scanner in " + opt);
+			}
+		} else if (opt.equals("--eliminate-dead")) {
+			setEliminateDead(true);
+		} else if (opt.equals("--optimize-frames")) {
+			setOptimizeFrames(true);
+		} else if (opt.equals("--delay-slots")) {
+			setDelaySlots(true);
+		} else if (opt.equals("--unit")) {
+			setUnit(true);
+		} else if (opt.startsWith("--use=")) {
+			for (String file : opt.substring("--use=".length()).split(",")) {
+				addInterface(file);
+			}
+		} else if (opt.equals("--stream")) {
+			setStreaming(true);
+		} else if (opt.equals("--stats")) {
+			setStats("text");
+		} else if (opt.startsWith("--stats=")) {
+			if (!setStats(opt.substring("--stats=".length()))) {
+				throw new IllegalArgumentException("unknown format in " + opt);
+			}
+		} else if (opt.startsWith("--jobs=")) {
+			try {
+				setJobs(Integer.parseInt(opt.substring("--jobs=".length())));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("bad number of jobs in " + opt);
+			}
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return opt (one of the options of setOption) with the file and
+	 * directory names it gives resolved against dir
+	 */
+	public static String resolveOption(String opt, java.nio.file.Path dir){
+		for (String name : new String[] { "--incremental=", "--ast-cache=" }) {
+			if (opt.startsWith(name)) {
+				return name + dir.resolve(opt.substring(name.length()));
+			}
+		}
+		if (opt.startsWith("--use=")) {
+			List<String> files = new ArrayList<String>();
+			for (String file : opt.substring("--use=".length()).split(",")) {
+				files.add(dir.resolve(file).toString());
+			}
+			return "--use=" + String.join(",", files);
+		}
+		return opt;
+	}
+
+	/**
+	 * Compile the given source text
+	 * @return the result, including the generated assembly
+	 */
+	public Result compile(CharSequence text){
+		StringWriter out = new StringWriter();
+		Result result = compile(text, out);
+		result.assembly = out.toString();
+		return result;
+	}
+
+	/**
+	 * Compile the given source text, writing the assembly to out
+	 * (which is flushed but not closed)
+	 */
+	public Result compile(CharSequence text, Writer out){
+		try {
+			return compileFrom(scanners.create(text), text, out);
+		} catch (IOException e) {
+			// no scanner reads anything but the text itself
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Compile the source read from in, writing the assembly to out
+	 * (which is flushed but not closed)
+	 */
+	public Result compile(Reader in, Writer out) throws IOException{
+		if (astCache != null && (!streaming || unit)) {
+			// the whole source is needed for its key
+			StringWriter text = new StringWriter();
+			in.transferTo(text);
+			return compile(text.toString(), out);
+		}
+		return compileFrom(scanners.create(in), null, out);
+	}
+
+	/**
+	 * Compile the tokens of scanner, writing the assembly to out
+	 * @param text the source the tokens are scanned from, if it is known
+	 *        (for the AST cache); otherwise null
+	 */
+	private Result compileFrom(java_cup.runtime.Scanner scanner,
+			CharSequence text, Writer out){
+		Result result = new Result();
+		String internalError = "";
+		ErrMsg msgs = ErrMsg.buffered();
+		ErrMsg old = ErrMsg.install(msgs);
+		CompileStats stats = (statsFormat == null || streaming) ? null
+			: new CompileStats(statsFormat.equals("json"));
+		result.stats = stats;
+		try {
+			if (streaming && !unit) {
+				result.code = stream(scanner, out, result.times);
+				return result;
+			}
+			// the key of the source in the AST cache, if it is to be
+			// looked up there and kept there once analyzed
+			String key = null;
+			AstCache.Entry cached = null;
+			ProgramNode root;
+			if (astCache != null && text != null &&
+					!skipped.contains("nameAnalysis") &&
+					!skipped.contains("typeCheck")) {
+				long[] sample = (stats == null) ? null : stats.sample();
+				long start = System.nanoTime();
+				key = astCache.key(unit ? unitContext() + text : text);
+				cached = astCache.get(key);
+				if (cached != null) {
+					ErrMsg.replay(cached.messages());
+					result.times.put("loadAst", System.nanoTime() - start);
+					if (stats != null) {
+						stats.record("loadAst", sample);
+					}
+				}
+			}
+			if (cached != null) {
+				root = cached.root();
+			} else {
+				CompilerEvents.Phase event =
+					new CompilerEvents.Phase("parse");
+				event.begin();
+				long start = System.nanoTime();
+				root = parse(scanner, stats);
+				result.times.put("parse", System.nanoTime() - start);
+				event.commit();
+				if (root == null || ErrMsg.getErr()) {
+					result.code = RESULT_SYNTAX_ERROR;
+					return result;
+				}
+			}
+
+			CompileStats.CountingWriter counted = null;
+			if (stats != null) {
+				counted = new CompileStats.CountingWriter(out);
+				out = counted;
+			}
+			StringPool strings = new StringPool();
+			PassManager passes = passes(new PrintWriter(out),
+				(cached == null) ? key : null, msgs, strings, stats);
+			if (cached != null) {
+				passes.skip("nameAnalysis");
+				passes.skip("typeCheck");
+			}
+			passes.setStats(stats);
+			try {
+				passes.run(root);
+			} finally {
+				result.times.putAll(passes.times());
+			}
+			if (unit && root.globals() != null) {
+				result.moduleInterface =
+					ModuleInterface.export(root, strings);
+			}
+			if (stats != null) {
+				stats.count("instructions", counted.instructions());
+				stats.count("labels", counted.labels());
+			}
+			result.code = ErrMsg.getErr() ? RESULT_TYPE_ERROR
+				: RESULT_CORRECT;
+		} catch (CompileAbortException e) {
+			if (e.getMessage() != null) {
+				internalError = e.getMessage() + System.lineSeparator();
+			}
+			result.code = RESULT_OTHER_ERROR;
+		} finally {
+			ErrMsg.install(old);
+			result.diagnostics = msgs.text() + internalError;
+		}
+		return result;
+	}
+
+	/**
+	 * Parse the tokens of the given scanner
+	 * @param stats where to record the scan and the parse, or null
+	 * @return root of the AST, or null if there was a syntax error
+	 */
+	private ProgramNode parse(java_cup.runtime.Scanner scanner,
+			CompileStats stats){
+		try {
+			TokenBuffer tokens = null;
+			long[] start = null;
+			if (stats != null) {
+				start = stats.sample();
+				tokens = new TokenBuffer(scanner);
+				stats.record("scan", start);
+				stats.count("tokens", tokens.size() - 1);
+				scanner = tokens.scanner();
+				start = stats.sample();
+			}
+			Symbol root;
+			if (pool != null) {
+				if (tokens == null) {
+					tokens = new TokenBuffer(scanner);
+				}
+				root = new ChunkedParser(tokens, descentParser).parse(pool);
+			} else if (descentParser) {
+				root = new DescentParser(scanner).parse();
+			} else {
+				root = new parser(scanner).parse();
+			}
+			if (stats != null) {
+				stats.record("parse", start);
+			}
+			return (ProgramNode)root.value;
+		} catch (CompileAbortException e) {
+			throw e;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * What, besides its source, the analysis of a unit depends on: the
+	 * interfaces it can use
+	 */
+	private String unitContext(){
+		StringBuilder context = new StringBuilder("unit\n");
+		for (ModuleInterface iface : interfaces) {
+			context.append(iface);
+		}
+		return context.append("end\n").toString();
+	}
+
+	/**
+	 * Parse and compile the tokens of the given scanner a declaration at
+	 * a time, writing the assembly to out
+	 * @param times where to put the time of the parse and of each pass
+	 * @return the result code
+	 */
+	private int stream(java_cup.runtime.Scanner scanner, Writer out,
+			Map<String, Long> times){
+		Codegen p = new Codegen(new PrintWriter(out));
+		p.setOptimizeFrames(optimizeFrames);
+		p.setDelaySlots(delaySlots);
+		StreamCompiler compiler = new StreamCompiler(p, cache, skipped);
+		try {
+			long start = System.nanoTime();
+			boolean parsed = true;
+			try {
+				if (descentParser) {
+					DescentParser P = new DescentParser(scanner);
+					P.setDeclHandler(compiler);
+					P.parse();
+				} else {
+					parser P = new parser(scanner);
+					P.setDeclHandler(compiler);
+					P.parse();
+				}
+			} catch (CompileAbortException e) {
+				// a pass failed on a declaration (see StreamCompiler)
+				throw e;
+			} catch (Exception e) {
+				// the passes throw only CompileAbortException, so this
+				// is a syntax error
+				parsed = false;
+			}
+			// the passes ran during the parse
+			long parse = System.nanoTime() - start;
+			for (long t : compiler.times().values()) {
+				parse -= t;
+			}
+			times.put("parse", parse);
+			if (!parsed || ErrMsg.getErr()) {
+				return RESULT_SYNTAX_ERROR;
+			}
+
+			try {
+				compiler.finish();
+			} finally {
+				times.putAll(compiler.times());
+			}
+			return ErrMsg.getErr() ? RESULT_TYPE_ERROR : RESULT_CORRECT;
+		} finally {
+			p.flush();
+		}
+	}
+
+	/**
+	 * The compiler passes for one compilation, in order
+	 * @param out where the codeGen pass writes the assembly
+	 * @param key key under which to keep the analyzed AST in the AST
+	 *        cache, or null not to keep it
+	 * @param msgs the messages of the compilation, kept with the AST
+	 * @param strings where the collect pass puts the string literals of
+	 *        the program, for codeGen and the module interface
+	 * @param stats where the collect pass records the number of AST
+	 *        nodes and symbols, or null
+	 * @return pass manager holding the pipeline, less the skipped passes
+	 */
+	private PassManager passes(final PrintWriter out, final String key,
+			final ErrMsg msgs, final StringPool strings,
+			CompileStats stats){
+		PassManager pm = new PassManager();
+		// name analysis also assigns the local variable offsets, so
+		// there is no separate offset pass
+		pm.add(new Pass("nameAnalysis") {
+			public void run(ProgramNode root) {
+				if (unit) {
+					SymTable globals = new SymTable();
+					for (ModuleInterface iface : interfaces) {
+						iface.declare(globals);
+					}
+					root.nameAnalysis(globals, false);
+				} else {
+					root.nameAnalysis();
+				}
+			}
+		});
+		pm.add(new Pass("typeCheck") {
+			public void run(ProgramNode root) {
+				if (pool == null) {
+					root.typeCheck();
+				} else {
+					root.typeCheck(pool);
+				}
+			}
+		});
+		// analyses that share one walk of the analyzed tree
+		List<ASTVisitor> collect = new ArrayList<ASTVisitor>();
+		collect.add(strings.collector());
+		if (stats != null) {
+			collect.add(stats.astCounter());
+		}
+		pm.addVisitors("collect", collect);
+		if (key != null) {
+			pm.add(new Pass("saveAst") {
+				public void run(ProgramNode root) {
+					astCache.put(key, new AstCache.Entry(root, msgs));
+				}
+			});
+		}
+		pm.add(new Pass("codeGen") {
+			public void run(ProgramNode root) {
+				Codegen p = new Codegen(out);
+				p.setOptimizeFrames(optimizeFrames);
+				p.setDelaySlots(delaySlots);
+				if (unit) {
+					// the Linker writes out the strings of all the units
+					root.declList().codeGen(p, pool, cache);
+				} else if (eliminateDead) {
+					// only the strings of the code that is kept
+					DeadCode.removeUnreachable(root).codeGen(p, pool, cache);
+				} else {
+					root.codeGen(p, pool, cache, strings);
+				}
+				p.flush();
+			}
+		});
+		for (String name : skipped) {
+			pm.skip(name);
+		}
+		return pm;
+	}
+
+	/**
+	 * The outcome of one compilation.
+	 */
+	public static class Result {
+		private int code;
+		private String assembly = null;
+		private String diagnostics = "";
+		private Map<String, Long> times = new LinkedHashMap<String, Long>();
+		private CompileStats stats = null;
+		private ModuleInterface moduleInterface = null;
+
+		/**
+		 * One of RESULT_CORRECT, RESULT_SYNTAX_ERROR (no AST was built),
+		 * RESULT_TYPE_ERROR (errors were reported after parsing; code
+		 * is still generated) or RESULT_OTHER_ERROR (the compilation
+		 * was abandoned)
+		 */
+		public int code() {
+			return code;
+		}
+
+		/**
+		 * The generated assembly, if the source was compiled by
+		 * {@link CimpleCompiler#compile(CharSequence)}; otherwise null
+		 */
+		public String assembly() {
+			return assembly;
+		}
+
+		/**
+		 * Every message reported, in order, as ErrMsg would have printed
+		 * them, followed by the internal error that ended the
+		 * compilation, if any
+		 */
+		public String diagnostics() {
+			return diagnostics;
+		}
+
+		/**
+		 * Wall time of the parse and of each pass that was run
+		 * @return name to time in nanoseconds, in the order they ran
+		 */
+		public Map<String, Long> times() {
+			return times;
+		}
+
+		/**
+		 * Time, CPU time and allocation of each phase, and the counts,
+		 * if the compiler was set to measure them (see
+		 * {@link CimpleCompiler#setStats}); otherwise null
+		 */
+		public CompileStats stats() {
+			return stats;
+		}
+
+		/**
+		 * The interface of the unit compiled, if the compiler compiles
+		 * units (see {@link CimpleCompiler#setUnit}) and name analysis
+		 * was done; otherwise null
+		 */
+		public ModuleInterface moduleInterface() {
+			return moduleInterface;
+		}
+
+		/**
+		 * Print one line per timing: its name and time in ms.
+		 */
+		public void printTimes(PrintStream out) {
+			for (Map.Entry<String, Long> e : times.entrySet()) {
+				out.printf("%-16s %10.3f ms%n", e.getKey(), e.getValue() / 1e6);
+			}
+		}
+	}
+}
@@ -0,0 +1,524 @@
+import java.io.*;
+
+import java_cup.runtime.*;
+
+/**
+ * A hand-written scanner for cimple, which can be used in place of the
+ * Yylex scanner generated from cimple.jlex.
+ *
+ * The whole input is read into memory (or mapped, see MappedSource) and
+ * scanned directly, without DFA tables: keywords are found with a perfect
+ * hash on the identifier's first and last characters and length, integer
+ * literals are accumulated digit by digit instead of going through
+ * Double.parseDouble, and each distinct identifier is copied out of the
+ * input only once.
+ *
+ * It returns the same tokens, with the same line and character numbers, and
+ * reports the same errors and warnings as Yylex (including the way Yylex
+ * counts lines and columns, e.g., "--" only advances the column by one).
+ */
+class CimpleScanner implements java_cup.runtime.Scanner {
+    // keywords, indexed by keywordHash
+    private static final String[] KEYWORDS = new String[32];
+    private static final int[] KEYWORD_SYMS = new int[32];
+
+    static {
+        addKeyword("bool", sym.BOOL);
+        addKeyword("int", sym.INT);
+        addKeyword("void", sym.VOID);
+        addKeyword("true", sym.TRUE);
+        addKeyword("false", sym.FALSE);
+        addKeyword("struct", sym.STRUCT);
+        addKeyword("cin", sym.CIN);
+        addKeyword("cout", sym.COUT);
+        addKeyword("if", sym.IF);
+        addKeyword("else", sym.ELSE);
+        addKeyword("while", sym.WHILE);
+        addKeyword("return", sym.RETURN);
+    }
+
+    // identifiers seen so far, so that each one is only copied out of the
+    // input once (open addressing, indexed by identifierHash)
+    private String[] identifiers = new String[1024];
+    private int numIdentifiers = 0;
+
+    private CharSequence text;  // the input
+    private int len;        // number of chars of the input
+    private int pos = 0;    // next char to scan
+    private int line = 1;   // line number of text[pos]
+    private int charNum = 1;  // character number of text[pos] on its line
+
+    // the last token scanned: where it starts in text, and its line and
+    // character numbers (it ends at pos)
+    private int tokStart;
+    private int tokLine;
+    private int tokCharNum;
+
+    public CimpleScanner(Reader in) throws IOException {
+        char[] buf = new char[8192];
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) != -1) {
+            len += n;
+            if (len == buf.length) {
+                char[] bigger = new char[2 * buf.length];
+                System.arraycopy(buf, 0, bigger, 0, len);
+                buf = bigger;
+            }
+        }
+        text = new String(buf, 0, len);
+    }
+
+    /**
+     * Scan the given text, e.g., a source file mapped by MappedSource,
+     * without copying it.
+     */
+    public CimpleScanner(CharSequence text) {
+        this.text = text;
+        len = text.length();
+    }
+
+    public Symbol next_token() {
+        int kind = scan();
+        if (kind == sym.EOF) {
+            return new Symbol(sym.EOF);
+        }
+        return new Symbol(kind, tokenVal(kind, tokStart, pos, tokLine,
+                                         tokCharNum));
+    }
+
+    /**
+     * Scan the next token, without making a Symbol for it.
+     * @return the kind of token (a sym constant); tokenStart, tokenEnd,
+     *         tokenLine and tokenCharNum tell where it is
+     */
+    int scan() {
+        while (pos < len) {
+            int start = pos;
+            char c = text.charAt(pos);
+            tokStart = start;
+            tokLine = line;
+            tokCharNum = charNum;
+
+            if (isLetter(c) || c == '_') {
+                pos++;
+                while (pos < len && isIdentifierChar(text.charAt(pos))) {
+                    pos++;
+                }
+                int kw = keyword(start, pos);
+                charNum += pos - start;
+                return (kw >= 0) ? kw : sym.ID;
+            }
+
+            if (isDigit(c)) {
+                pos++;
+                while (pos < len && isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                if (digitsValue(start, pos) > Integer.MAX_VALUE) {
+                    ErrMsg.warn(line, charNum,
+                                "integer literal too large; using max value");
+                }
+                charNum += pos - start;
+                return sym.INTLITERAL;
+            }
+
+            switch (c) {
+            case '\n':
+                pos++;
+                line++;
+                charNum = 1;
+                continue;
+
+            case ' ':
+            case '\t':
+                pos++;
+                while (pos < len && (text.charAt(pos) == ' ' ||
+                                     text.charAt(pos) == '\t')) {
+                    pos++;
+                }
+                charNum += pos - start;
+                continue;
+
+            case '#':
+                skipComment();
+                continue;
+
+            case '"':
+                if (stringLiteral()) {
+                    return sym.STRINGLITERAL;
+                }
+                continue;
+
+            case '{':  return single(sym.LCURLY);
+            case '}':  return single(sym.RCURLY);
+            case '(':  return single(sym.LPAREN);
+            case ')':  return single(sym.RPAREN);
+            case ';':  return single(sym.SEMICOLON);
+            case ',':  return single(sym.COMMA);
+            case '.':  return single(sym.DOT);
+            case '*':  return single(sym.TIMES);
+
+            case '/':
+                if (next('/')) {
+                    skipComment();
+                    continue;
+                }
+                return single(sym.DIVIDE);
+
+            case '<':
+                if (next('<')) {
+                    return pair(sym.WRITE);
+                }
+                if (next('=')) {
+                    return pair(sym.LESSEQ);
+                }
+                return single(sym.LESS);
+
+            case '>':
+                if (next('>')) {
+                    return pair(sym.READ);
+                }
+                if (next('=')) {
+                    return pair(sym.GREATEREQ);
+                }
+                return single(sym.GREATER);
+
+            case '+':
+                if (next('+')) {
+                    return pair(sym.PLUSPLUS);
+                }
+                return single(sym.PLUS);
+
+            case '-':
+                if (next('-')) {
+                    // Yylex only counts one character for "--"
+                    pos += 2;
+                    charNum++;
+                    return sym.MINUSMINUS;
+                }
+                return single(sym.MINUS);
+
+            case '!':
+                if (next('=')) {
+                    return pair(sym.NOTEQUALS);
+                }
+                return single(sym.NOT);
+
+            case '=':
+                if (next('=')) {
+                    return pair(sym.EQUALS);
+                }
+                return single(sym.ASSIGN);
+
+            case '&':
+                if (next('&')) {
+                    return pair(sym.AND);
+                }
+                break;
+
+            case '|':
+                if (next('|')) {
+                    return pair(sym.OR);
+                }
+                break;
+            }
+
+            ErrMsg.fatal(line, charNum, "illegal character ignored: " + c);
+            pos++;
+            countLines(start, pos);
+            charNum++;
+        }
+        tokStart = pos;
+        tokLine = line;
+        tokCharNum = charNum;
+        return sym.EOF;
+    }
+
+    int tokenStart() {
+        return tokStart;
+    }
+
+    int tokenEnd() {
+        return pos;
+    }
+
+    int tokenLine() {
+        return tokLine;
+    }
+
+    int tokenCharNum() {
+        return tokCharNum;
+    }
+
+    /**
+     * Return the text at text[start, end).
+     */
+    String text(int start, int end) {
+        return text.subSequence(start, end).toString();
+    }
+
+    /**
+     * Return the value of a token (not EOF) of the given kind found at
+     * text[start, end).
+     */
+    TokenVal tokenVal(int kind, int start, int end, int line, int charNum) {
+        switch (kind) {
+        case sym.ID:
+            return new IdTokenVal(line, charNum, identifier(start, end));
+        case sym.INTLITERAL:
+            return new IntLitTokenVal(line, charNum,
+                (int)Math.min(digitsValue(start, end), Integer.MAX_VALUE));
+        case sym.STRINGLITERAL:
+            return new StrLitTokenVal(line, charNum,
+                                      text.subSequence(start, end).toString());
+        default:
+            return new TokenVal(line, charNum);
+        }
+    }
+
+    /**
+     * Return the value of the digits text[start, end), or a value greater
+     * than Integer.MAX_VALUE if it does not fit in an int.
+     */
+    private long digitsValue(int start, int end) {
+        long val = 0;
+        for (int k = start; k < end && val <= Integer.MAX_VALUE; k++) {
+            val = 10 * val + (text.charAt(k) - '0');
+        }
+        return val;
+    }
+
+    /**
+     * Scan a string literal starting at text[pos].
+     * @return true if it is a good literal (otherwise it is skipped)
+     */
+    private boolean stringLiteral() {
+        // Yylex has four rules for string literals; the one that matches
+        // the longest text wins, or the first one listed if there is a tie:
+        //   1. good literal:  " (N | \E)* "
+        //   2. unterminated:  " (N | \E)*
+        //   3. bad escape:    " (N | \E)* \B [^\n"]* "
+        //   4. unterminated with bad escape:  " (N | \E)* (\B)? (N | \E)* \?
+        // where N is a char other than newline, quote and backslash, E is
+        // an escaped char, and B is a char other than newline and E
+        int start = pos;
+        int k = goodChars(start + 1);
+        if (k < len && text.charAt(k) == '"') {
+            pos = k + 1;
+            countLines(start, pos);
+            charNum += pos - start;
+            return true;
+        }
+
+        if (k >= len || text.charAt(k) == '\n') {
+            // rule 2 (rule 4 matches the same text)
+            ErrMsg.fatal(line, charNum, "unterminated string literal ignored");
+            pos = k;
+            countLines(start, pos);
+            return false;
+        }
+
+        // text[k] is a backslash that does not start a good escape
+        int end3 = -1;
+        int end4;
+        if (k + 1 >= len || text.charAt(k + 1) == '\n') {
+            end4 = k + 1;
+        }
+        else {
+            int j = k + 2;
+            while (j < len && text.charAt(j) != '\n' &&
+                   text.charAt(j) != '"') {
+                j++;
+            }
+            if (j < len && text.charAt(j) == '"') {
+                end3 = j + 1;
+            }
+            end4 = goodChars(k + 2);
+            if (end4 < len && text.charAt(end4) == '\\') {
+                end4++;
+            }
+        }
+
+        if (end3 >= end4) {
+            ErrMsg.fatal(line, charNum,
+                         "string literal with bad escaped character ignored");
+            pos = end3;
+            countLines(start, pos);
+            charNum += pos - start;
+        }
+        else {
+            ErrMsg.fatal(line, charNum,
+             "unterminated string literal with bad escaped character ignored");
+            pos = end4;
+            countLines(start, pos);
+        }
+        return false;
+    }
+
+    /**
+     * Return the position of the first char, at or after k, that is not
+     * part of a sequence of string chars and good escapes.
+     */
+    private int goodChars(int k) {
+        while (k < len) {
+            char c = text.charAt(k);
+            if (c == '\\') {
+                if (k + 1 < len && isEscapedChar(text.charAt(k + 1))) {
+                    k += 2;
+                    continue;
+                }
+                return k;
+            }
+            if (c == '\n' || c == '"') {
+                return k;
+            }
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Skip a comment, which ends at the next newline.
+     */
+    private void skipComment() {
+        int start = pos;
+        while (pos < len && text.charAt(pos) != '\n') {
+            pos++;
+        }
+        countLines(start, pos);
+    }
+
+    /**
+     * Count the line terminators, other than newline, in text[from, to) the
+     * way the JLex scanner does: JLex only ends lines at newlines and
+     * carriage returns, and a carriage return followed by a newline is
+     * counted with the newline.
+     */
+    private void countLines(int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (text.charAt(k) == '\r' &&
+                (k + 1 >= len || text.charAt(k + 1) != '\n')) {
+                line++;
+            }
+        }
+    }
+
+    private boolean next(char c) {
+        return pos + 1 < len && text.charAt(pos + 1) == c;
+    }
+
+    private int single(int kind) {
+        pos++;
+        charNum++;
+        return kind;
+    }
+
+    private int pair(int kind) {
+        pos += 2;
+        charNum += 2;
+        return kind;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return isLetter(c) || isDigit(c) || c == '_';
+    }
+
+    private static boolean isEscapedChar(char c) {
+        return c == 'n' || c == 't' || c == '\'' || c == '"' || c == '?' ||
+               c == '\\';
+    }
+
+    private static int keywordHash(char first, char last, int length) {
+        return (first + last + length) & 31;
+    }
+
+    private static void addKeyword(String word, int kind) {
+        int h = keywordHash(word.charAt(0), word.charAt(word.length() - 1),
+                            word.length());
+        if (KEYWORDS[h] != null) {
+            throw new IllegalStateException("Keyword hash collision between " +
+                                            word + " and " + KEYWORDS[h]);
+        }
+        KEYWORDS[h] = word;
+        KEYWORD_SYMS[h] = kind;
+    }
+
+    /**
+     * Return the identifier in text[start, end), copying it out of the
+     * input only the first time it is seen.
+     */
+    String identifier(int start, int end) {
+        int h = 0;
+        for (int k = start; k < end; k++) {
+            h = 31 * h + text.charAt(k);
+        }
+        int mask = identifiers.length - 1;
+        int slot = h & mask;
+        for (String id = identifiers[slot]; id != null;
+             id = identifiers[slot]) {
+            if (id.hashCode() == h && matches(id, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String id = text.subSequence(start, end).toString();
+        identifiers[slot] = id;
+        numIdentifiers++;
+        if (2 * numIdentifiers > identifiers.length) {
+            String[] old = identifiers;
+            identifiers = new String[2 * old.length];
+            mask = identifiers.length - 1;
+            for (String s : old) {
+                if (s != null) {
+                    slot = s.hashCode() & mask;
+                    while (identifiers[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    identifiers[slot] = s;
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Return true if text[start, end) is word.
+     */
+    private boolean matches(String word, int start, int end) {
+        if (word.length() != end - start) {
+            return false;
+        }
+        for (int k = 0; k < end - start; k++) {
+            if (word.charAt(k) != text.charAt(start + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the symbol of the keyword in text[start, end), or -1 if it is
+     * not a keyword.
+     */
+    private int keyword(int start, int end) {
+        int length = end - start;
+        if (length < 2 || length > 6) {
+            return -1;
+        }
+        int h = keywordHash(text.charAt(start), text.charAt(end - 1), length);
+        String word = KEYWORDS[h];
+        if (word == null || !matches(word, start, end)) {
+            return -1;
+        }
+        return KEYWORD_SYMS[h];
+    }
+}
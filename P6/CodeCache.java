@@ -0,0 +1,166 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CodeCache class keeps the code generated for each function in a
+ * directory so that a later compile can reuse it if the function has not
+ * changed.
+ *
+ * A function's code is stored under a hash of
+ *   - the function itself, as unparsed after name analysis (so layout and
+ *     comments do not matter, and every name is followed by its type --
+ *     including the signature of each function it calls), and
+ *   - the signatures of the global names it uses: which names are global
+ *     variables, and the fields of the structs it uses, and
+ *   - whether frames are optimized (Codegen.setOptimizeFrames).
+ * Since labels are named after the function (see Codegen.newSection), the
+ * code does not depend on anything else, so a function is regenerated
+ * only if it or one of those signatures changed.
+ *
+ * Entries are never removed; the directory can be deleted at any time.
+ */
+class CodeCache {
+    // change whenever the code generator changes, to ignore old entries
+    private static final String VERSION = "3";
+
+    private File dir;
+    private AtomicInteger hits = new AtomicInteger();
+    private AtomicInteger misses = new AtomicInteger();
+
+    public CodeCache(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create cache directory " + dir);
+        }
+    }
+
+    /**
+     * Write the code for fn into section: from the cache if it is there,
+     * otherwise by generating it (and then adding it to the cache).
+     * Must be called after name analysis and type checking.
+     */
+    public void codeGen(FnDeclNode fn, Codegen section) {
+        File file = new File(dir, key(fn, section) + ".s");
+        String code = read(file);
+        if (code != null) {
+            hits.incrementAndGet();
+            section.appendText(code);
+            return;
+        }
+        misses.incrementAndGet();
+        fn.codeGen(section);
+        write(file, section.text());
+    }
+
+    /**
+     * Number of functions whose code was (not) found in the cache.
+     */
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    /**
+     * Return the hash (in hex) under which the code for fn, generated
+     * into section, is stored.
+     */
+    private String key(FnDeclNode fn, Codegen section) {
+        StringWriter text = new StringWriter();
+        PrintWriter p = new PrintWriter(text);
+        p.println(VERSION);
+        if (section.optimizeFrames()) {
+            p.println("optimize frames");
+        }
+        fn.unparse(p, 0);
+        for (String dep : dependencies(fn)) {
+            p.println(dep);
+        }
+        p.flush();
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(
+                text.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new CompileAbortException(
+                "SHA-256 not available in CodeCache.key");
+        }
+    }
+
+    /**
+     * Return, in sorted order, the signatures of the global variables and
+     * structs used by fn.
+     */
+    private SortedSet<String> dependencies(FnDeclNode fn) {
+        final SortedSet<String> deps = new TreeSet<String>();
+        fn.accept(new ASTVisitor() {
+            public boolean preVisit(ASTnode node) {
+                if (!(node instanceof IdNode)) {
+                    return true;
+                }
+                IdNode id = (IdNode)node;
+                SemSym sym = id.sym();
+                if (sym == null) {
+                    return false;
+                }
+                if (!sym.isLocal()) {
+                    deps.add("global " + id.name() + " " + sym);
+                }
+                String structName = id.name();
+                if (sym instanceof StructSym) {  // a struct variable
+                    structName = ((StructSym)sym).getStructType().name();
+                    sym = ((StructSym)sym).getStructType().sym();
+                }
+                if (sym instanceof StructDefSym) {
+                    deps.add("struct " + structName + " " +
+                             ((StructDefSym)sym).getSymTable());
+                }
+                return false;
+            }
+
+            public void postVisit(ASTnode node) { }
+        });
+        return deps;
+    }
+
+    private String read(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()),
+                              StandardCharsets.UTF_8);
+        } catch (IOException ex) {  // not cached (or unreadable)
+            return null;
+        }
+    }
+
+    /**
+     * Add an entry to the cache. The entry is written to a temporary file
+     * first so that a concurrent compile never reads a partial entry.
+     * Failing to write an entry only means it will be generated again.
+     */
+    private void write(File file, String code) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("entry", ".tmp", dir);
+            Files.write(tmp.toPath(), code.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (tmp != null) {  // leave the entry out
+                tmp.delete();
+            }
+        }
+    }
+}
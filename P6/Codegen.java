@@ -8,22 +8,43 @@ import java.io.*;
 //     Registers: FP, SP, RA, V0, V1, A0, T0, T1
 //     Values: TRUE, FALSE
 //
+// A Codegen object holds the state of one stream of generated code: the
+// writer the code goes to and the label namespace used by nextLabel.
+// Each function is generated into its own buffered section (see
+// newSection) so that functions can be generated independently, even on
+// different threads, and then written out in declaration order.  The
+// code of a section can also be saved (text) and written out again
+// later (appendText); see CodeCache.
+//
+// With setOptimizeFrames, functions are generated without a frame
+// pointer (see FnDeclNode.codeGen): beginFrame starts a function's body,
+// and from then on the Codegen keeps track of how far SP is below where
+// FP would point, so that generateFrameIndexed can address the formals
+// and locals relative to SP instead.  This is exact because SP only
+// moves by the pushes and pops generated through genPush and genPop and
+// by the arguments a called function pops (calleePopped).
+//
 // The operations are include various "generate" methods to print nicely
 // formatted assembly code:
 //     generateWithComment
 //     generate
 //     generateIndexed
 //     generateLabeled
+//     generateFrameIndexed
 //     genPush
 //     genPop
 //     genLabel
-// and a method nextLabel to create and return a new label.
+// and a method nextLabel to create and return a new label.  The methods
+// newSection, append, text and appendText create and write out buffered
+// sections.
 //
 // **********************************************************************
 
 public class Codegen {
-    // file into which generated code is written
-    public static PrintWriter p = null;    
+    // file (or section buffer) into which generated code is written
+    private PrintWriter p;
+    // text of a section created by newSection (null for the output file)
+    private StringWriter buffer;
 
     // values of true and false
     public static final String TRUE = "1";
@@ -45,7 +66,138 @@ public class Codegen {
 
 
     // for generating labels
-    private static int currLabel = 0;
+    private String labelPrefix;
+    private int currLabel = 0;
+
+    // for functions without a frame pointer
+    private boolean optimizeFrames = false;
+    // for a MIPS with delay slots (see DelaySlots)
+    private boolean delaySlots = false;
+    private boolean omitFP = false;   // true after beginFrame
+    private int fpOffset;             // distance from SP to FP at beginFrame
+    private int depth;                // bytes pushed since beginFrame
+
+    // **********************************************************************
+    // Codegen
+    //    given:  the writer for the generated code and the prefix used for
+    //            labels created by nextLabel
+    // **********************************************************************
+    public Codegen(PrintWriter p, String labelPrefix) {
+        this.p = p;
+        this.labelPrefix = labelPrefix;
+    }
+
+    public Codegen(PrintWriter p) {
+        this(p, ".L");
+    }
+
+    // **********************************************************************
+    // newSection
+    //    return a new Codegen whose code is buffered until it is passed to
+    //    append, and whose labels are .L<id>_0, .L<id>_1, etc.
+    //    (ids are top-level names, so the labels a function uses do not
+    //    depend on where the function is in the file)
+    // **********************************************************************
+    public Codegen newSection(String id) {
+        StringWriter sw = new StringWriter();
+        Codegen section = new Codegen(new PrintWriter(sw), ".L" + id + "_");
+        section.buffer = sw;
+        section.optimizeFrames = optimizeFrames;
+        section.delaySlots = delaySlots;
+        return section;
+    }
+
+    // **********************************************************************
+    // setOptimizeFrames
+    //    generate functions (in this Codegen and the sections created
+    //    from it afterwards) with a frame allocated by one instruction,
+    //    no frame pointer, and, for functions that call no other, without
+    //    saving RA; off by default
+    // **********************************************************************
+    public void setOptimizeFrames(boolean optimize) {
+        optimizeFrames = optimize;
+    }
+
+    public boolean optimizeFrames() {
+        return optimizeFrames;
+    }
+
+    // **********************************************************************
+    // setDelaySlots
+    //    schedule the code of the sections created from this Codegen
+    //    afterwards for branch and load delay slots when they are appended
+    //    (see DelaySlots); off by default, leaving that to the assembler
+    // **********************************************************************
+    public void setDelaySlots(boolean schedule) {
+        delaySlots = schedule;
+    }
+
+    // **********************************************************************
+    // beginFrame
+    //    given:  the distance from SP to where FP would point
+    //    do:     address the frame relative to SP from now on
+    // **********************************************************************
+    public void beginFrame(int fpOffset) {
+        omitFP = true;
+        this.fpOffset = fpOffset;
+        depth = 0;
+    }
+
+    // **********************************************************************
+    // frameOffset
+    //    return the offset from SP of the given offset from FP
+    // **********************************************************************
+    public int frameOffset(int offset) {
+        return offset + fpOffset + depth;
+    }
+
+    // **********************************************************************
+    // calleePopped
+    //    record that a function just called popped the given number of
+    //    bytes of arguments
+    // **********************************************************************
+    public void calleePopped(int bytes) {
+        depth -= bytes;
+    }
+
+    // **********************************************************************
+    // text
+    //    return the code buffered so far in a section
+    // **********************************************************************
+    public String text() {
+        p.flush();
+        return buffer.toString();
+    }
+
+    // **********************************************************************
+    // append
+    //    write out the code buffered in the given section (scheduled for
+    //    delay slots if the section was created with setDelaySlots)
+    // **********************************************************************
+    public void append(Codegen section) {
+        if (section.delaySlots) {
+            p.write(DelaySlots.schedule(section.text()));
+        }
+        else {
+            p.write(section.text());
+        }
+    }
+
+    // **********************************************************************
+    // appendText
+    //    write out previously generated code
+    // **********************************************************************
+    public void appendText(String code) {
+        p.write(code);
+    }
+
+    // **********************************************************************
+    // flush
+    //    force any generated code out to the underlying writer
+    // **********************************************************************
+    public void flush() {
+        p.flush();
+    }
 
 
     // **********************************************************************
@@ -59,7 +211,7 @@ public class Codegen {
     //    given:  op code, comment, and 0 to 3 string args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generateWithComment(String opcode, String comment,
+    public void generateWithComment(String opcode, String comment,
                                         String arg1, String arg2, String arg3) {
         int space = MAXLEN - opcode.length() + 2;
     
@@ -79,17 +231,17 @@ public class Codegen {
         p.println();
     }
 
-    public static void generateWithComment(String opcode, String comment,
+    public void generateWithComment(String opcode, String comment,
                                            String arg1, String arg2) {
         generateWithComment(opcode, comment, arg1, arg2, "");
     }
 
-    public static void generateWithComment(String opcode, String comment,
+    public void generateWithComment(String opcode, String comment,
                                            String arg1) {
         generateWithComment(opcode, comment, arg1, "", "");
     }
 
-    public static void generateWithComment(String opcode, String comment) {
+    public void generateWithComment(String opcode, String comment) {
         generateWithComment(opcode, comment, "", "", "");
     }
 
@@ -98,7 +250,7 @@ public class Codegen {
     //    given:  op code, and 0 to 3 string args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generate(String opcode, String arg1, String arg2,
+    public void generate(String opcode, String arg1, String arg2,
                                 String arg3) {
         int space = MAXLEN - opcode.length() + 2;
     
@@ -116,15 +268,15 @@ public class Codegen {
         p.println();
     }
 
-    public static void generate(String opcode, String arg1, String arg2) {
+    public void generate(String opcode, String arg1, String arg2) {
         generate(opcode, arg1, arg2, "");
     }
 
-    public static void generate(String opcode, String arg1) {
+    public void generate(String opcode, String arg1) {
         generate(opcode, arg1, "", "");
     }
 
-    public static void generate(String opcode) {
+    public void generate(String opcode) {
         generate(opcode, "", "", "");
     }
 
@@ -133,7 +285,7 @@ public class Codegen {
     //    given:  op code and args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generate(String opcode, String arg1, String arg2,
+    public void generate(String opcode, String arg1, String arg2,
                                 int arg3) {
         int space = MAXLEN - opcode.length() + 2;
     
@@ -148,7 +300,7 @@ public class Codegen {
     //    given:  op code and args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generate(String opcode, String arg1, int arg2) {
+    public void generate(String opcode, String arg1, int arg2) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -164,7 +316,7 @@ public class Codegen {
     //    do:     write nicely formatted code (ending with new line):
     //                 op T1, xx(T2) #comment
     // **********************************************************************
-    public static void generateIndexed(String opcode, String arg1, String arg2,
+    public void generateIndexed(String opcode, String arg1, String arg2,
                                        int arg3, String comment) {
         int space = MAXLEN - opcode.length() + 2;
     
@@ -177,17 +329,37 @@ public class Codegen {
         p.println();
     }
     
-    public static void generateIndexed(String opcode, String arg1, String arg2,
+    public void generateIndexed(String opcode, String arg1, String arg2,
                                        int arg3) {
         generateIndexed(opcode, arg1, arg2, arg3, "");
     }
 
+    // **********************************************************************
+    // generateFrameIndexed
+    //    given:  op code, target register, offset from FP and comment
+    //    do:     as generateIndexed, relative to FP, or to SP if the
+    //            frame pointer is omitted (see beginFrame)
+    // **********************************************************************
+    public void generateFrameIndexed(String opcode, String arg1, int offset,
+                                     String comment) {
+        if (omitFP) {
+            generateIndexed(opcode, arg1, SP, frameOffset(offset), comment);
+        }
+        else {
+            generateIndexed(opcode, arg1, FP, offset, comment);
+        }
+    }
+
+    public void generateFrameIndexed(String opcode, String arg1, int offset) {
+        generateFrameIndexed(opcode, arg1, offset, "");
+    }
+
     // **********************************************************************
     // generateLabeled (string args -- perhaps empty)
     //    given:  label, op code, comment, and arg
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generateLabeled(String label, String opcode,
+    public void generateLabeled(String label, String opcode,
                                        String comment, String arg1) {
         int space = MAXLEN - opcode.length() + 2;
     
@@ -203,7 +375,7 @@ public class Codegen {
         p.println();
     }
 
-    public static void generateLabeled(String label, String opcode,
+    public void generateLabeled(String label, String opcode,
                                        String comment) {
         generateLabeled(label, opcode, comment, "");
     }
@@ -212,18 +384,20 @@ public class Codegen {
     // genPush
     //    generate code to push the given value onto the stack
     // **********************************************************************
-    public static void genPush(String s) {
+    public void genPush(String s) {
         generateIndexed("sw", s, SP, 0, "PUSH");
         generate("subu", SP, SP, 4);
+        depth += 4;
     }
 
     // **********************************************************************
     // genPop
     //    generate code to pop into the given register
     // **********************************************************************
-    public static void genPop(String s) {
+    public void genPop(String s) {
         generateIndexed("lw", s, SP, 4, "POP");
         generate("addu", SP, SP, 4);
+        depth -= 4;
     }
 
     // **********************************************************************
@@ -231,24 +405,24 @@ public class Codegen {
     //   given:    label L and comment (comment may be empty)
     //   generate: L:    # comment
     // **********************************************************************
-    public static void genLabel(String label, String comment) {
+    public void genLabel(String label, String comment) {
         p.print(label + ":");
         if (comment != "") 
             p.print("\t\t" + "# " + comment);
         p.println();
     }
     
-    public static void genLabel(String label) {
+    public void genLabel(String label) {
         genLabel(label, "");
     }
     
     // **********************************************************************
     // Return a different label each time:
-    //        L0 L1 L2, etc.
+    //        L0 L1 L2, etc. (prefixed with the section id, if any)
     // **********************************************************************
-    public static String nextLabel() {
+    public String nextLabel() {
         Integer k = new Integer(currLabel++);
-        String tmp = ".L" + k;
+        String tmp = labelPrefix + k;
         return(tmp);
     }
 }
@@ -0,0 +1,157 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The CommandLine class holds what P6 makes of its command line, and what
+ * it prints once a file has been compiled, so that P6 and CompileServer
+ * (which does what P6 would do with a command line sent by a client)
+ * handle them the same way:
+ *
+ *     [options] <infile> <outfile>
+ *     --batch[=<n>] [options] <file or directory> ...
+ *
+ * Of the options, --time-passes, --mmap and --batch are P6's own; the
+ * others are the compiler's (CimpleCompiler.setOption). File names, in
+ * the options and as arguments, can be resolved against a directory other
+ * than the current one (CimpleCompiler.resolveOption).
+ */
+class CommandLine {
+    private List<String> options = new ArrayList<String>();
+    private boolean timePasses = false;
+    private boolean mapInput = false;
+    private int batch = 0;  // files compiled at once by --batch; 0: no batch
+    private List<String> files = new ArrayList<String>();
+
+    /**
+     * @param args the command line
+     * @param dir directory against which to resolve file names, or null
+     *        to leave them as they are
+     * @throws IllegalArgumentException if the command line is bad (the
+     *         message says why)
+     */
+    public CommandLine(List<String> args, Path dir) {
+        int argc = 0;
+        while (argc < args.size() && args.get(argc).startsWith("--")) {
+            String opt = args.get(argc++);
+            if (opt.equals("--time-passes")) {
+                timePasses = true;
+            }
+            else if (opt.equals("--mmap")) {
+                mapInput = true;
+            }
+            else if (opt.equals("--batch")) {
+                batch = Runtime.getRuntime().availableProcessors();
+            }
+            else if (opt.startsWith("--batch=")) {
+                try {
+                    batch = Integer.parseInt(opt.substring("--batch=".length()));
+                } catch (NumberFormatException e) {
+                    batch = 0;
+                }
+                if (batch < 1) {
+                    throw new IllegalArgumentException(
+                        "bad number of files in " + opt);
+                }
+            }
+            else {
+                options.add((dir == null) ? opt
+                            : CimpleCompiler.resolveOption(opt, dir));
+            }
+        }
+        for (String file : args.subList(argc, args.size())) {
+            files.add((dir == null) ? file : dir.resolve(file).toString());
+        }
+
+        if (batch > 0) {
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("please supply names of " +
+                    "files or directories to be compiled.");
+            }
+        }
+        else if (files.size() < 2) {
+            throw new IllegalArgumentException("please supply name of file " +
+                "to be parsed" + "and name of file for unparsed version.");
+        }
+    }
+
+    /**
+     * The compiler options, in order, with their file names resolved.
+     */
+    public List<String> compilerOptions() {
+        return options;
+    }
+
+    /**
+     * Apply the compiler options to compiler.
+     * @throws IllegalArgumentException if an option is unknown or bad
+     * @throws IOException if a cache directory or interface cannot be used
+     */
+    public void configure(CimpleCompiler compiler) throws IOException {
+        for (String opt : options) {
+            if (!compiler.setOption(opt)) {
+                throw new IllegalArgumentException("unknown option " + opt);
+            }
+        }
+    }
+
+    public boolean timePasses() {
+        return timePasses;
+    }
+
+    public boolean mapInput() {
+        return mapInput;
+    }
+
+    /**
+     * The number of files to compile at once with --batch, or 0 if the
+     * command line is not a batch.
+     */
+    public int batch() {
+        return batch;
+    }
+
+    /**
+     * The file arguments: the input and output files, or those to
+     * compile with --batch.
+     */
+    public List<String> files() {
+        return files;
+    }
+
+    /**
+     * Print what P6 prints once a file has been compiled to outName: the
+     * messages, then the time of each pass (if timePasses) and the stats
+     * (if any). The interface of a unit is written beside the output.
+     * @throws IOException if the interface cannot be written (the messages
+     *         have been printed)
+     */
+    public static void report(CimpleCompiler.Result result, String outName,
+                              boolean timePasses, PrintStream err)
+        throws IOException {
+        err.print(result.diagnostics());
+        if (result.moduleInterface() != null) {
+            result.moduleInterface().write(
+                new File(ModuleInterface.fileFor(outName)));
+        }
+        if (timePasses) {
+            result.printTimes(err);
+        }
+        if (result.stats() != null) {
+            result.stats().print(err);
+        }
+    }
+
+    /**
+     * Return the status P6 exits with after a compilation with the given
+     * result: -1 if it had a syntax error or was abandoned, otherwise 0
+     * (type errors are reported, but code is still generated).
+     */
+    public static int status(CimpleCompiler.Result result) {
+        if (result.code() == CimpleCompiler.RESULT_SYNTAX_ERROR ||
+            result.code() == CimpleCompiler.RESULT_OTHER_ERROR) {
+            return -1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Thrown to abandon a compilation, e.g., when a program has no main
+ * function, or when a pass finds that something it relies on is not so
+ * (an internal error). The message, if not null, has not been reported
+ * through ErrMsg; a null message means the reason has been reported
+ * already.
+ */
+public class CompileAbortException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CompileAbortException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The CompileClient class has a CompileServer do what P6 would do with a
+ * command line, and prints what P6 would print and exits as P6 would:
+ *
+ *     java CompileClient <socket> [options] <infile> <outfile>
+ *
+ * takes the place of
+ *
+ *     java P6 [options] <infile> <outfile>
+ *
+ * (See CompileServer for the protocol.)
+ */
+public class CompileClient {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println(
+                "usage: java CompileClient <socket> [P6 arguments]");
+            System.exit(-1);
+        }
+
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+        } catch (IOException e) {
+            System.err.println("no compile server at " + args[0]);
+            System.exit(-1);
+            return;
+        }
+
+        PrintWriter out = new PrintWriter(
+            Channels.newWriter(server, StandardCharsets.UTF_8));
+        out.println(System.getProperty("user.dir"));
+        for (int k = 1; k < args.length; k++) {
+            out.println(args[k]);
+        }
+        out.println();
+        out.flush();
+
+        BufferedReader in = new BufferedReader(
+            Channels.newReader(server, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("err ")) {
+                System.err.println(line.substring("err ".length()));
+            }
+            else if (line.startsWith("exit ")) {
+                server.close();
+                System.exit(Integer.parseInt(line.substring("exit ".length())));
+            }
+        }
+        System.err.println("no reply from compile server at " + args[0]);
+        System.exit(-1);
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The CompileServer class is a compiler that stays running, so that the
+ * cost of starting a JVM, loading the compiler's classes, decoding the
+ * parser tables and warming up the JIT is paid once rather than for every
+ * file. It listens on a Unix domain socket and compiles the files named in
+ * each request on a fixed pool of worker threads:
+ *
+ *     java CompileServer [--workers=<n>] <socket>
+ *
+ * CompileClient sends it a P6 command line; the files are read and written
+ * by the server, so client and server must share a file system.
+ *
+ * The protocol is lines of UTF-8 text, one request per connection. The
+ * client sends its working directory (against which relative file names
+ * are resolved), then each argument on a line of its own, then an empty
+ * line. The server replies with one line "err <text>" for each line P6
+ * would have printed to System.err, then "exit <status>" with the status
+ * P6 would have exited with. If the compiler fails on the request (even
+ * with an Error, such as StackOverflowError), the reply is an "err" line
+ * saying so and "exit -1", and the server goes on serving.
+ *
+ * Requests with the same compiler options share one CimpleCompiler (and so
+ * one pool of threads for --jobs, one cache for --incremental).
+ */
+public class CompileServer {
+    private Path socket;
+    private ExecutorService workers;
+    // compiler for each set of compiler options, keyed by the options
+    private Map<String, CimpleCompiler> compilers =
+        new HashMap<String, CimpleCompiler>();
+
+    public CompileServer(Path socket, int workers) {
+        this.socket = socket;
+        this.workers = Executors.newFixedThreadPool(workers);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int workers = Runtime.getRuntime().availableProcessors();
+        int argc = 0;
+        while (argc < args.length && args[argc].startsWith("--")) {
+            String opt = args[argc++];
+            if (opt.startsWith("--workers=")) {
+                try {
+                    workers = Integer.parseInt(
+                        opt.substring("--workers=".length()));
+                } catch (NumberFormatException e) {
+                    workers = 0;
+                }
+                if (workers < 1) {
+                    System.err.println("bad number of workers in " + opt);
+                    System.exit(-1);
+                }
+            }
+            else {
+                System.err.println("unknown option " + opt);
+                System.exit(-1);
+            }
+        }
+        if (args.length - argc != 1) {
+            System.err.println(
+                "usage: java CompileServer [--workers=<n>] <socket>");
+            System.exit(-1);
+        }
+        new CompileServer(Paths.get(args[argc]), workers).serve();
+    }
+
+    /**
+     * Accept requests until the server is killed.
+     */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socket);  // left by a server that was killed
+        ServerSocketChannel server =
+            ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException e) {
+                    // nothing more to be done
+                }
+            }
+        });
+
+        while (true) {
+            final SocketChannel client = server.accept();
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        handle(client);
+                    } catch (IOException e) {
+                        // the client has gone; nothing to reply to
+                    } finally {
+                        try {
+                            client.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Read one request from the client, compile, and send the reply.
+     */
+    private void handle(SocketChannel client) throws IOException {
+        BufferedReader in = new BufferedReader(
+            Channels.newReader(client, StandardCharsets.UTF_8));
+        String cwd = in.readLine();
+        if (cwd == null) {
+            return;
+        }
+        List<String> args = new ArrayList<String>();
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            args.add(line);
+        }
+
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream err =
+            new PrintStream(messages, true, StandardCharsets.UTF_8);
+        int status;
+        try {
+            status = compile(Paths.get(cwd), args, err);
+        } catch (RuntimeException e) {  // a bug in the compiler
+            err.println("internal error: " + e);
+            status = -1;
+        } catch (Error e) {  // e.g., a program nested too deeply to analyze
+            err.println("internal error: " + e);
+            status = -1;
+        }
+
+        PrintWriter out = new PrintWriter(
+            Channels.newWriter(client, StandardCharsets.UTF_8));
+        BufferedReader lines = new BufferedReader(new StringReader(
+            messages.toString(StandardCharsets.UTF_8)));
+        while ((line = lines.readLine()) != null) {
+            out.println("err " + line);
+        }
+        out.println("exit " + status);
+        out.flush();
+    }
+
+    /**
+     * Do what P6 does with the given command line (see CommandLine).
+     * @param cwd directory against which to resolve file names
+     * @param err where to print what P6 prints to System.err
+     * @return the status P6 would exit with
+     */
+    private int compile(Path cwd, List<String> args, PrintStream err) {
+        CommandLine command;
+        CimpleCompiler compiler;
+        try {
+            command = new CommandLine(args, cwd);
+            if (command.batch() > 0) {
+                err.println("--batch is not supported by the compile server");
+                return -1;
+            }
+            compiler = compiler(command);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return -1;
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return -1;
+        }
+
+        String inName = command.files().get(0);
+        String outName = command.files().get(1);
+        Reader in = null;
+        CharSequence text = null;
+        try {
+            if (command.mapInput()) {
+                text = MappedSource.map(inName);
+            }
+            else {
+                in = new FileReader(inName);
+            }
+        } catch (IOException e) {
+            err.println("Could not open " + inName + " for reading");
+            return -1;
+        }
+
+        PrintWriter out;
+        try {
+            out = new PrintWriter(outName);
+        } catch (FileNotFoundException e) {
+            err.println("Could not open " + outName + " for reading");
+            return -1;
+        }
+
+        CimpleCompiler.Result result;
+        try {
+            if (text != null) {
+                result = compiler.compile(text, out);
+            }
+            else {
+                result = compiler.compile(in, out);
+            }
+            CommandLine.report(result, outName, command.timePasses(), err);
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return -1;
+        } finally {
+            out.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return CommandLine.status(result);
+    }
+
+    /**
+     * Return the compiler for the compiler options of command, making it
+     * if this is the first request to use them.
+     */
+    private CimpleCompiler compiler(CommandLine command) throws IOException {
+        String key = String.join("\n", command.compilerOptions());
+        synchronized (compilers) {
+            CimpleCompiler compiler = compilers.get(key);
+            if (compiler == null) {
+                compiler = new CimpleCompiler();
+                command.configure(compiler);
+                compilers.put(key, compiler);
+            }
+            return compiler;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * The CompileStats class records, for one compilation, the wall time, CPU
+ * time and bytes allocated by each phase, and a few counts (tokens, AST
+ * nodes, symbols, instructions and labels emitted). See
+ * CimpleCompiler.setStats.
+ *
+ * The phases are scan, parse, and each pass run (nameAnalysis, typeCheck,
+ * collect, codeGen); the AST nodes and symbols are counted in the walk of
+ * the collect pass (see CimpleCompiler). Local variable offsets are
+ * assigned during name analysis, so their cost is part of nameAnalysis
+ * rather than a phase of its own.
+ *
+ * CPU time and allocation are summed over all the threads of the JVM, so
+ * that work done on a pool (--jobs) is counted with the phase that does
+ * it; anything else the JVM is doing at the same time (e.g., another
+ * compilation in a CompileServer) is counted too.
+ */
+class CompileStats {
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private boolean json;
+    // phase name to { wall ns, cpu ns, bytes allocated }, in order
+    private Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+    private Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+    /**
+     * @param json print as JSON rather than as text
+     */
+    public CompileStats(boolean json) {
+        this.json = json;
+    }
+
+    /**
+     * Return the wall time, CPU time and bytes allocated so far, to be
+     * passed to record at the end of a phase.
+     */
+    public long[] sample() {
+        long[] ids = threads.getAllThreadIds();
+        long cpu = 0;
+        for (long t : threads.getThreadCpuTime(ids)) {
+            cpu += Math.max(0, t);
+        }
+        long bytes = 0;
+        for (long b : threads.getThreadAllocatedBytes(ids)) {
+            bytes += Math.max(0, b);
+        }
+        return new long[] { System.nanoTime(), cpu, bytes };
+    }
+
+    /**
+     * Return a visitor that counts the nodes of the tree it walks, and the
+     * symbols its identifiers are bound to by name analysis, and records
+     * them (astNodes, symbols) when it leaves the root.
+     */
+    public ASTVisitor astCounter() {
+        return new ASTVisitor() {
+            private ASTnode root = null;
+            private long nodes = 0;
+            private Set<SemSym> syms = Collections.newSetFromMap(
+                new IdentityHashMap<SemSym, Boolean>());
+
+            public boolean preVisit(ASTnode node) {
+                if (root == null) {
+                    root = node;
+                }
+                nodes++;
+                if (node instanceof IdNode && ((IdNode)node).sym() != null) {
+                    syms.add(((IdNode)node).sym());
+                }
+                return true;
+            }
+
+            public void postVisit(ASTnode node) {
+                if (node == root) {
+                    count("astNodes", nodes);
+                    count("symbols", syms.size());
+                }
+            }
+        };
+    }
+
+    /**
+     * Record a phase that began when the given sample was taken.
+     */
+    public void record(String phase, long[] start) {
+        long[] end = sample();
+        phases.put(phase, new long[] {
+            end[0] - start[0], end[1] - start[1], end[2] - start[2]
+        });
+    }
+
+    public void count(String name, long n) {
+        counts.put(name, n);
+    }
+
+    public Map<String, long[]> phases() {
+        return phases;
+    }
+
+    public Map<String, Long> counts() {
+        return counts;
+    }
+
+    public void print(PrintStream out) {
+        out.print(this);
+    }
+
+    /**
+     * Return the stats as printed: a table with a line per phase and a
+     * line per count, or one line of JSON.
+     */
+    public String toString() {
+        if (json) {
+            return toJson() + System.lineSeparator();
+        }
+        StringBuilder s = new StringBuilder(String.format(
+            "%-16s %10s %10s %12s%n", "phase", "wall ms", "cpu ms",
+            "alloc KB"));
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            long[] p = e.getValue();
+            s.append(String.format("%-16s %10.3f %10.3f %12.1f%n", e.getKey(),
+                                   p[0] / 1e6, p[1] / 1e6, p[2] / 1024.0));
+        }
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            s.append(String.format("%-16s %10d%n", e.getKey(), e.getValue()));
+        }
+        return s.toString();
+    }
+
+    public String toJson() {
+        StringBuilder s = new StringBuilder("{\"phases\": [");
+        String sep = "";
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            long[] p = e.getValue();
+            s.append(sep + "{\"name\": \"" + e.getKey() + "\", " +
+                     "\"wallNanos\": " + p[0] + ", \"cpuNanos\": " + p[1] +
+                     ", \"allocatedBytes\": " + p[2] + "}");
+            sep = ", ";
+        }
+        s.append("], \"counts\": {");
+        sep = "";
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            s.append(sep + "\"" + e.getKey() + "\": " + e.getValue());
+            sep = ", ";
+        }
+        return s.append("}}").toString();
+    }
+
+    /**
+     * A Writer that counts the instructions and labels in the assembly
+     * written through it: a label is the text before the ':' of a line
+     * that does not begin with a tab, and an instruction is the first
+     * field after a tab, if it is an opcode (rather than a directive
+     * such as .text or .word, or a comment).
+     */
+    static class CountingWriter extends FilterWriter {
+        private static final int START = 0;      // at the start of a line
+        private static final int LABEL = 1;      // in a label
+        private static final int FIELD = 2;      // after a tab, at a field
+        private static final int REST = 3;       // nothing more to count
+
+        private int state = START;
+        private long instructions = 0;
+        private long labels = 0;
+
+        public CountingWriter(Writer out) {
+            super(out);
+        }
+
+        public long instructions() {
+            return instructions;
+        }
+
+        public long labels() {
+            return labels;
+        }
+
+        private void count(char c) {
+            if (c == '\n') {
+                state = START;
+                return;
+            }
+            switch (state) {
+            case START:
+                state = (c == '\t') ? FIELD : LABEL;
+                break;
+            case LABEL:
+                if (c == ':') {
+                    labels++;
+                    state = START;  // what follows is like a new line
+                }
+                break;
+            case FIELD:
+                if (Character.isLetter(c)) {  // not .word, #comment, ...
+                    instructions++;
+                }
+                state = REST;
+                break;
+            }
+        }
+
+        public void write(int c) throws IOException {
+            count((char)c);
+            out.write(c);
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int k = off; k < off + len; k++) {
+                count(cbuf[k]);
+            }
+            out.write(cbuf, off, len);
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+            for (int k = off; k < off + len; k++) {
+                count(str.charAt(k));
+            }
+            out.write(str, off, len);
+        }
+    }
+}
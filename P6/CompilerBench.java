@@ -0,0 +1,338 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CompilerBench measures each phase of the compiler on a few inputs:
+ *
+ *     java CompilerBench [--warmup=<n>] [--iterations=<n>] [--time=<ms>]
+ *                        [--bench=<name>,...] [--huge=<functions>]
+ *                        [<name>=<file> ...]
+ *
+ * The benchmarks are
+ *    lex           scan the source with Yylex (the JLex scanner)
+ *    lexHand       scan the source with CimpleScanner
+ *    parse         parse the (already scanned) tokens with the CUP parser
+ *    nameAnalysis  ProgramNode.nameAnalysis on a freshly parsed AST
+ *    typeCheck     ProgramNode.typeCheck after nameAnalysis
+ *    codeGen       ProgramNode.codeGen after typeCheck
+ *    compile       all of the above, through CimpleCompiler.compile
+ * and the inputs, unless others are named, are hello.cimple (small),
+ * example.cimple (medium) and a program made by WorkloadGenerator (huge),
+ * of 3000 functions unless --huge says otherwise.
+ *
+ * For each benchmark and input, warmup iterations are run and thrown
+ * away, then each measured iteration runs the benchmark over and over for
+ * the given time. Anything an operation needs that is not what is being
+ * measured (e.g., the AST that typeCheck checks) is made before the
+ * operation starts and is neither timed nor counted; the ASTs made that
+ * way are parsed by DescentParser, which builds the same tree as the CUP
+ * parser in less time. Reported are the operations per second (mean and
+ * standard deviation over the iterations), and the bytes allocated per
+ * operation and per second, as counted by the JVM for the thread running
+ * the benchmark.
+ *
+ * For the parse benchmark, the heap kept by the AST is also reported, per
+ * statement: enough copies of the AST are kept at once for the heap they
+ * take (measured after full collections) to stand out from the noise of
+ * the collector, and the heap is divided among them.
+ */
+public class CompilerBench {
+    private int warmup = 5;
+    private int iterations = 10;
+    private long iterationNanos = 200 * 1000000L;
+    private Set<String> only = null;  // null: run every benchmark
+    private int hugeFunctions = 3000;  // functions in the huge input
+    private Map<String, String> inputs = new LinkedHashMap<String, String>();
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        CompilerBench bench = new CompilerBench();
+        for (String arg : args) {
+            if (arg.startsWith("--warmup=")) {
+                bench.warmup = Integer.parseInt(
+                    arg.substring("--warmup=".length()));
+            }
+            else if (arg.startsWith("--iterations=")) {
+                bench.iterations = Integer.parseInt(
+                    arg.substring("--iterations=".length()));
+            }
+            else if (arg.startsWith("--time=")) {
+                bench.iterationNanos = 1000000L * Long.parseLong(
+                    arg.substring("--time=".length()));
+            }
+            else if (arg.startsWith("--bench=")) {
+                bench.only = new HashSet<String>(Arrays.asList(
+                    arg.substring("--bench=".length()).split(",")));
+            }
+            else if (arg.startsWith("--huge=")) {
+                bench.hugeFunctions = Integer.parseInt(
+                    arg.substring("--huge=".length()));
+            }
+            else if (arg.indexOf('=') > 0) {
+                int eq = arg.indexOf('=');
+                bench.inputs.put(arg.substring(0, eq), new String(
+                    Files.readAllBytes(Paths.get(arg.substring(eq + 1)))));
+            }
+            else {
+                System.err.println("unknown argument " + arg);
+                System.exit(-1);
+            }
+        }
+        if (bench.inputs.isEmpty()) {
+            bench.inputs.put("small", read("hello.cimple"));
+            bench.inputs.put("medium", read("example.cimple"));
+            WorkloadGenerator huge = new WorkloadGenerator();
+            huge.setOption("--functions=" + bench.hugeFunctions);
+            bench.inputs.put("huge", huge.generate());
+        }
+        bench.run();
+    }
+
+    private static String read(String filename) throws IOException {
+        return new String(Files.readAllBytes(Paths.get(filename)));
+    }
+
+    /**
+     * One benchmark, on one input at a time.
+     */
+    abstract static class Bench {
+        private String name;
+
+        Bench(String name) {
+            this.name = name;
+        }
+
+        String name() {
+            return name;
+        }
+
+        /** Make what one operation needs (not timed). */
+        void prepare(String text) throws Exception {
+        }
+
+        /** One operation (timed). */
+        abstract Object op(String text) throws Exception;
+    }
+
+    private List<Bench> benches() {
+        List<Bench> list = new ArrayList<Bench>();
+        list.add(new Bench("lex") {
+            Object op(String text) throws Exception {
+                return scan(new Yylex(new StringReader(text)));
+            }
+        });
+        list.add(new Bench("lexHand") {
+            Object op(String text) throws Exception {
+                return scan(new CimpleScanner(text));
+            }
+        });
+        list.add(new Bench("parse") {
+            private TokenBuffer tokens;
+            private String scanned;
+
+            void prepare(String text) throws Exception {
+                if (text != scanned) {
+                    tokens = new TokenBuffer(new CimpleScanner(text));
+                    scanned = text;
+                }
+            }
+
+            Object op(String text) throws Exception {
+                return new parser(tokens.scanner()).parse();
+            }
+        });
+        list.add(new Bench("nameAnalysis") {
+            private ProgramNode root;
+
+            void prepare(String text) throws Exception {
+                root = parse(text);
+            }
+
+            Object op(String text) {
+                root.nameAnalysis();
+                return root;
+            }
+        });
+        list.add(new Bench("typeCheck") {
+            private ProgramNode root;
+
+            void prepare(String text) throws Exception {
+                root = parse(text);
+                root.nameAnalysis();
+            }
+
+            Object op(String text) {
+                root.typeCheck();
+                return root;
+            }
+        });
+        list.add(new Bench("codeGen") {
+            private ProgramNode root;
+
+            void prepare(String text) throws Exception {
+                root = parse(text);
+                root.nameAnalysis();
+                root.typeCheck();
+            }
+
+            Object op(String text) {
+                Codegen p = new Codegen(new PrintWriter(Writer.nullWriter()));
+                root.codeGen(p);
+                p.flush();
+                return root;
+            }
+        });
+        list.add(new Bench("compile") {
+            private CimpleCompiler compiler = new CimpleCompiler();
+
+            Object op(String text) {
+                return compiler.compile(text, Writer.nullWriter());
+            }
+        });
+        return list;
+    }
+
+    private static int scan(java_cup.runtime.Scanner scanner)
+        throws Exception {
+        int n = 0;
+        while (scanner.next_token().sym != sym.EOF) {
+            n++;
+        }
+        return n;
+    }
+
+    private static ProgramNode parse(String text) throws Exception {
+        return (ProgramNode)
+            new DescentParser(new CimpleScanner(text)).parse().value;
+    }
+
+    private void run() throws Exception {
+        System.out.printf("%-14s %-8s %12s %10s %14s %12s%n", "benchmark",
+                          "input", "ops/s", "+-", "alloc B/op", "alloc MB/s");
+        for (Bench bench : benches()) {
+            if (only != null && !only.contains(bench.name())) {
+                continue;
+            }
+            for (Map.Entry<String, String> input : inputs.entrySet()) {
+                measure(bench, input.getKey(), input.getValue());
+            }
+        }
+    }
+
+    private void measure(Bench bench, String input, String text)
+        throws Exception {
+        ErrMsg old = ErrMsg.install(ErrMsg.buffered());
+        try {
+            for (int k = 0; k < warmup; k++) {
+                iteration(bench, text);
+            }
+            double[] rates = new double[iterations];
+            long ops = 0;
+            long nanos = 0;
+            long bytes = 0;
+            for (int k = 0; k < iterations; k++) {
+                long[] r = iteration(bench, text);
+                ops += r[0];
+                nanos += r[1];
+                bytes += r[2];
+                rates[k] = r[0] * 1e9 / r[1];
+            }
+
+            double mean = ops * 1e9 / nanos;
+            double var = 0;
+            for (double rate : rates) {
+                var += (rate - mean) * (rate - mean);
+            }
+            double sd = Math.sqrt(var / Math.max(1, iterations - 1));
+            System.out.printf("%-14s %-8s %12.1f %10.1f %14d %12.1f%n",
+                              bench.name(), input, mean, sd, bytes / ops,
+                              bytes / (nanos / 1e9) / (1 << 20));
+            if (bench.name().equals("parse")) {
+                retained(input, text);
+            }
+        } finally {
+            ErrMsg.install(old);
+        }
+    }
+
+    /**
+     * Run the benchmark for one iteration.
+     * @return operations, nanoseconds spent in them, bytes they allocated
+     */
+    private long[] iteration(Bench bench, String text) throws Exception {
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long thread = Thread.currentThread().getId();
+        while (nanos < iterationNanos) {
+            ErrMsg.install(ErrMsg.buffered());
+            bench.prepare(text);
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            Object result = bench.op(text);
+            nanos += System.nanoTime() - start;
+            bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+            ops++;
+            if (result == null) {
+                throw new IllegalStateException(bench.name() + " failed");
+            }
+        }
+        return new long[] { ops, nanos, bytes };
+    }
+
+    // bytes of source, in all, that the copies of an AST kept to measure
+    // what one retains are parsed from (at least one copy, at most 1000)
+    private static final int RETAINED_SOURCE = 8 << 20;
+
+    /**
+     * Report the heap kept by the AST of the given program, per statement.
+     */
+    private void retained(String input, String text) throws Exception {
+        Runtime rt = Runtime.getRuntime();
+        TokenBuffer tokens = new TokenBuffer(new CimpleScanner(text));
+        int copies = Math.max(1, Math.min(1000,
+            RETAINED_SOURCE / Math.max(1, text.length())));
+        ProgramNode[] roots = new ProgramNode[copies];
+        collect();
+        long before = rt.totalMemory() - rt.freeMemory();
+        for (int k = 0; k < copies; k++) {
+            roots[k] = (ProgramNode)new parser(tokens.scanner()).parse().value;
+        }
+        collect();
+        long after = rt.totalMemory() - rt.freeMemory();
+        ProgramNode root = roots[0];  // keeps the copies alive until here
+        long bytes = (after - before) / copies;
+
+        final int[] stmts = { 0 };
+        root.accept(new ASTVisitor() {
+            public boolean preVisit(ASTnode node) {
+                if (node instanceof StmtNode) {
+                    stmts[0]++;
+                }
+                return true;
+            }
+
+            public void postVisit(ASTnode node) {
+            }
+        });
+        if (bytes <= 0) {  // lost in what the collector freed meanwhile
+            System.out.printf("%-14s %-8s %d statements, AST too small " +
+                              "to measure%n", "  retained", input, stmts[0]);
+            return;
+        }
+        System.out.printf("%-14s %-8s %d statements, AST %d bytes, " +
+                          "%.1f bytes/statement (%d copies)%n", "  retained",
+                          input, stmts[0], bytes,
+                          bytes / (double)Math.max(1, stmts[0]), copies);
+    }
+
+    private static void collect() {
+        for (int k = 0; k < 3; k++) {
+            System.gc();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.*;
+
+import jdk.jfr.*;
+
+/**
+ * The CompilerEvents class holds the Java Flight Recorder events the
+ * compiler emits, so that a long compile (e.g., P6 --batch) can be
+ * recorded and the slow phases and functions found afterwards:
+ *
+ *     java -XX:StartFlightRecording=filename=rec.jfr P6 --batch dir
+ *     jfr print --events cimple.Phase,cimple.Function rec.jfr
+ *
+ * A Phase event spans the parse or one pass of one compilation; a Function
+ * event spans the type check or code generation of one function, and
+ * gives its name, AST node count and, for codeGen, the instructions
+ * emitted. Events cost next to nothing when no recording is running, and
+ * the counts are only made for events that will be recorded.
+ */
+class CompilerEvents {
+    @Name("cimple.Phase")
+    @Label("Compiler Phase")
+    @Category("Cimple")
+    @Description("Parse or one pass of a compilation")
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    @Name("cimple.Function")
+    @Label("Function")
+    @Category("Cimple")
+    @Description("Type check or code generation of one function")
+    static class Function extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("AST Nodes")
+        long astNodes;
+
+        @Label("Instructions")
+        @Description("Instructions emitted; 0 for typeCheck")
+        long instructions;
+    }
+
+    /**
+     * Commit a Function event that has ended, counting the nodes of fn,
+     * and the instructions in the section code if it is not null, if it
+     * is to be recorded. Nothing is counted (nor the section's text made)
+     * when no recording wants the event.
+     */
+    static void commit(Function event, String phase, FnDeclNode fn,
+                       Codegen code) {
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.function = fn.name();
+        event.phase = phase;
+        final long[] nodes = { 0 };
+        fn.accept(new ASTVisitor() {
+            public boolean preVisit(ASTnode node) {
+                nodes[0]++;
+                return true;
+            }
+
+            public void postVisit(ASTnode node) {
+            }
+        });
+        event.astNodes = nodes[0];
+        if (code != null) {
+            CompileStats.CountingWriter counted =
+                new CompileStats.CountingWriter(Writer.nullWriter());
+            try {
+                counted.write(code.text());
+            } catch (IOException e) {
+                // not from a null writer
+            }
+            event.instructions = counted.instructions();
+        }
+        event.commit();
+    }
+}
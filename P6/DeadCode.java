@@ -0,0 +1,78 @@
+import java.util.*;
+
+/**
+ * The DeadCode class finds the functions and global variables a program
+ * can never use: those not reachable from main by following, from each
+ * function reached, the names its body refers to (the functions it calls
+ * and the globals it reads or writes). Leaving them out of the code also
+ * leaves out the string literals only they use, as the string pool is
+ * made from the code that is generated.
+ *
+ * Struct declarations generate no code and are always kept. The analysis
+ * needs name analysis to have been done, and the whole program: it is not
+ * used for units (CimpleCompiler.setUnit) or when streaming.
+ */
+class DeadCode {
+    /**
+     * Return a program holding only the declarations of root that can be
+     * reached from main, in the same order, or root itself if they all
+     * can (or name analysis has not been done). The nodes are shared with
+     * root, not copied.
+     */
+    public static ProgramNode removeUnreachable(ProgramNode root) {
+        SymTable globals = root.globals();
+        if (globals == null) {
+            return root;
+        }
+
+        // the declaration of each global name (the first, if there are
+        // several)
+        final Map<SemSym, DeclNode> declOf =
+            new IdentityHashMap<SemSym, DeclNode>();
+        List<DeclNode> decls = root.declList().decls();
+        for (DeclNode decl : decls) {
+            SemSym sym = globals.lookupGlobal(decl.name());
+            if (sym != null && !declOf.containsKey(sym)) {
+                declOf.put(sym, decl);
+            }
+        }
+
+        final Set<DeclNode> live = Collections.newSetFromMap(
+            new IdentityHashMap<DeclNode, Boolean>());
+        final Deque<DeclNode> work = new ArrayDeque<DeclNode>();
+        DeclNode main = declOf.get(globals.lookupGlobal("main"));
+        if (main == null) {
+            return root;
+        }
+        live.add(main);
+        work.push(main);
+        ASTVisitor refs = new ASTVisitor() {
+            public boolean preVisit(ASTnode node) {
+                if (node instanceof IdNode) {
+                    DeclNode decl = declOf.get(((IdNode)node).sym());
+                    if (decl != null && live.add(decl)) {
+                        work.push(decl);
+                    }
+                }
+                return true;
+            }
+
+            public void postVisit(ASTnode node) { }
+        };
+        while (!work.isEmpty()) {
+            work.pop().accept(refs);
+        }
+
+        List<DeclNode> kept = new ArrayList<DeclNode>();
+        for (DeclNode decl : decls) {
+            if (live.contains(decl) || !(decl instanceof FnDeclNode ||
+                                         decl instanceof VarDeclNode)) {
+                kept.add(decl);
+            }
+        }
+        if (kept.size() == decls.size()) {
+            return root;
+        }
+        return new ProgramNode(new DeclListNode(kept));
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * A DeclHandler is given each top-level declaration as soon as it has
+ * been parsed, instead of the declaration being kept in the ProgramNode
+ * (see parser.setDeclHandler, DescentParser.setDeclHandler and
+ * StreamCompiler).
+ */
+interface DeclHandler {
+    void decl(DeclNode node);
+}
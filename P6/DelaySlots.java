@@ -0,0 +1,297 @@
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * The DelaySlots class schedules the code of one function for a MIPS that
+ * has delay slots (Codegen.setDelaySlots), given the code as generated:
+ *
+ *   - the instruction after a branch or jump (its delay slot) is executed
+ *     whether or not the branch is taken, so each one is followed by an
+ *     instruction moved from just before it, if that instruction does not
+ *     change what the branch tests, or else by a nop;
+ *   - the register a load writes cannot be read by the instruction right
+ *     after it (its load delay), so such an instruction is separated from
+ *     the load by the one after it, if that can be moved up, or else by a
+ *     nop.
+ *
+ * The code is put between ".set noreorder" and ".set reorder", so that
+ * the assembler leaves the slots as they are and goes back to filling
+ * them itself for whatever follows (code not scheduled here). What each
+ * instruction reads and writes is worked out from its operands;
+ * instructions are only moved within a basic block, never across a label,
+ * a syscall or an instruction that is not known here, and only a store or
+ * another instruction that assembles to a single machine instruction is
+ * put in a branch delay slot. Loads and stores are never reordered with
+ * each other.
+ */
+class DelaySlots {
+    private static final Pattern REGISTER = Pattern.compile("\\$\\w+");
+    private static final Pattern INDEXED =
+        Pattern.compile("(-?\\d+)\\((\\$\\w+)\\)");
+
+    private static final Set<String> BRANCHES = new HashSet<String>(
+        Arrays.asList("b", "j", "jr", "jal", "jalr", "beq", "bne", "bgt",
+                      "bge", "blt", "ble", "bgtu", "bgeu", "bltu", "bleu",
+                      "beqz", "bnez", "bltz", "bgez", "bgtz", "blez"));
+    private static final Set<String> LOADS = new HashSet<String>(
+        Arrays.asList("lw", "lb", "lbu", "lh", "lhu"));
+    private static final Set<String> STORES = new HashSet<String>(
+        Arrays.asList("sw", "sb", "sh"));
+    // instructions that write their first operand and read the others
+    private static final Set<String> ARITHMETIC = new HashSet<String>(
+        Arrays.asList("add", "addu", "sub", "subu", "and", "or", "xor", "nor",
+                      "slt", "sltu", "sll", "srl", "sra", "addi", "addiu",
+                      "andi", "ori", "xori", "slti", "sltiu", "move", "neg",
+                      "not", "mul", "seq", "sne", "sgt", "sge", "sle", "li",
+                      "la", "lui", "rem", "remu"));
+    // those of ARITHMETIC that are one machine instruction when their
+    // operands are registers and small constants
+    // (and, or and xor are not, as a negative constant takes more)
+    private static final Set<String> SINGLE = new HashSet<String>(
+        Arrays.asList("add", "addu", "sub", "subu", "slt", "sltu", "sll",
+                      "srl", "sra", "addi", "addiu", "slti", "move", "li",
+                      "la", "sw", "sb", "sh"));
+
+    /**
+     * A line of code: an instruction, or (if op is null) anything else.
+     */
+    private static class Line {
+        String text;
+        String op;
+        Set<String> defs = new HashSet<String>();
+        Set<String> uses = new HashSet<String>();
+        boolean barrier;   // its effect is not known
+        boolean single;    // assembles to one machine instruction
+        boolean inSlot;    // has been put in a delay slot
+
+        Line(String text) {
+            this.text = text;
+            if (text.length() < 2 || text.charAt(0) != '\t' ||
+                text.charAt(1) == '.' ||
+                Character.isWhitespace(text.charAt(1))) {
+                return;  // a label, directive or blank line
+            }
+            int hash = text.indexOf('#');
+            String code = (hash < 0 ? text : text.substring(0, hash)).trim();
+            String[] parts = code.split("\\s+", 2);
+            op = parts[0];
+            String[] args = (parts.length > 1) ? parts[1].split(",")
+                : new String[0];
+            for (int k = 0; k < args.length; k++) {
+                args[k] = args[k].trim();
+            }
+            if (args.length == 0 && !op.equals("nop")) {
+                barrier = true;  // syscall
+                return;
+            }
+
+            if (BRANCHES.contains(op)) {
+                registers(args, 0, uses);
+                if (op.equals("jal") || op.equals("jalr")) {
+                    defs.add("$ra");
+                }
+            } else if (STORES.contains(op)) {
+                registers(args, 0, uses);
+            } else if (LOADS.contains(op) || ARITHMETIC.contains(op)) {
+                registers(new String[] { args[0] }, 0, defs);
+                registers(args, 1, uses);
+            } else if (op.equals("mult") || op.equals("div") ||
+                       op.equals("multu") || op.equals("divu")) {
+                // two operands: write HI and LO; three: as ARITHMETIC
+                int first = (args.length == 3) ? 1 : 0;
+                if (first == 1) {
+                    defs.add(args[0]);
+                }
+                defs.add("hi");
+                defs.add("lo");
+                registers(args, first, uses);
+            } else if (op.equals("mflo") || op.equals("mfhi")) {
+                defs.add(args[0]);
+                uses.add(op.substring(2));
+            } else if (op.equals("nop")) {
+                single = true;
+                return;
+            } else {
+                barrier = true;  // syscall, or not known here
+                return;
+            }
+            single = SINGLE.contains(op) && small(args);
+        }
+
+        boolean isInstruction() {
+            return op != null;
+        }
+
+        boolean isBranch() {
+            return BRANCHES.contains(op);
+        }
+
+        boolean isLoad() {
+            return LOADS.contains(op);
+        }
+
+        boolean isMemory() {
+            return LOADS.contains(op) || STORES.contains(op);
+        }
+
+        boolean reads(String reg) {
+            return barrier || uses.contains(reg);
+        }
+
+        /**
+         * Return true if this line and next can be executed in either
+         * order.
+         */
+        boolean independentOf(Line next) {
+            if (barrier || next.barrier || isBranch() || next.isBranch()) {
+                return false;
+            }
+            if (isMemory() && next.isMemory() &&
+                (!isLoad() || !next.isLoad())) {
+                return false;
+            }
+            return disjoint(defs, next.defs) && disjoint(defs, next.uses) &&
+                disjoint(uses, next.defs);
+        }
+    }
+
+    private static void registers(String[] args, int from, Set<String> regs) {
+        for (int k = from; k < args.length; k++) {
+            Matcher m = REGISTER.matcher(args[k]);
+            while (m.find()) {
+                regs.add(m.group());
+            }
+        }
+    }
+
+    /**
+     * Return true if each operand is a register, a 16-bit constant or a
+     * register plus a 16-bit offset (not a label).
+     */
+    private static boolean small(String[] args) {
+        for (String arg : args) {
+            Matcher m = INDEXED.matcher(arg);
+            String number = m.matches() ? m.group(1) : arg;
+            if (REGISTER.matcher(arg).matches()) {
+                continue;
+            }
+            try {
+                int value = Integer.parseInt(number);
+                if (value < -32768 || value > 32767) {
+                    return false;
+                }
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean disjoint(Set<String> a, Set<String> b) {
+        return Collections.disjoint(a, b);
+    }
+
+    /**
+     * Return the code of a function (or other section), given as
+     * generated, scheduled for delay slots. Code without instructions is
+     * returned as it is.
+     */
+    public static String schedule(String code) {
+        List<Line> lines = new ArrayList<Line>();
+        boolean any = false;
+        for (String text : code.split("\n")) {
+            Line line = new Line(text);
+            lines.add(line);
+            any |= line.isInstruction();
+        }
+        if (!any) {
+            return code;
+        }
+
+        fillBranchSlots(lines);
+        fillLoadDelays(lines);
+
+        StringBuilder out = new StringBuilder("\t.set noreorder\n");
+        for (Line line : lines) {
+            out.append(line.text).append('\n');
+        }
+        out.append("\t.set reorder\n");
+        return out.toString();
+    }
+
+    private static Line nop() {
+        Line nop = new Line("\tnop");
+        nop.inSlot = true;
+        return nop;
+    }
+
+    /**
+     * Follow each branch by the instruction just before it, if it can be
+     * executed after the branch, or by a nop.
+     */
+    private static void fillBranchSlots(List<Line> lines) {
+        for (int k = 0; k < lines.size(); k++) {
+            Line branch = lines.get(k);
+            if (!branch.isInstruction() || !branch.isBranch()) {
+                continue;
+            }
+            Line prev = (k > 0) ? lines.get(k - 1) : null;
+            Line before = (k > 1) ? lines.get(k - 2) : null;
+            boolean move = prev != null && prev.isInstruction() &&
+                !prev.barrier && !prev.isBranch() && !prev.inSlot &&
+                prev.single && !prev.isLoad() &&
+                disjoint(prev.defs, branch.uses) &&
+                disjoint(prev.defs, branch.defs) &&
+                disjoint(prev.uses, branch.defs) &&
+                // moving prev must not leave a load right before the
+                // branch that tests what it loads
+                !(before != null && before.isInstruction() &&
+                  before.isLoad() && !disjoint(before.defs, branch.uses));
+            if (move) {
+                lines.remove(k - 1);
+                prev.inSlot = true;
+                lines.add(k, prev);
+            } else {
+                lines.add(k + 1, nop());
+                k++;
+            }
+        }
+    }
+
+    /**
+     * Make sure no instruction reads the register written by a load right
+     * before it, moving an independent instruction in between or adding
+     * a nop.
+     */
+    private static void fillLoadDelays(List<Line> lines) {
+        for (int k = 0; k < lines.size(); k++) {
+            Line load = lines.get(k);
+            if (!load.isInstruction() || !load.isLoad()) {
+                continue;
+            }
+            String reg = load.defs.isEmpty() ? null
+                : load.defs.iterator().next();
+            // the next instruction, perhaps after a label
+            int n = k + 1;
+            while (n < lines.size() && !lines.get(n).isInstruction()) {
+                n++;
+            }
+            if (reg == null || n == lines.size() ||
+                !lines.get(n).reads(reg)) {
+                continue;
+            }
+            Line next = lines.get(n);
+            Line after = (n == k + 1 && n + 1 < lines.size())
+                ? lines.get(n + 1) : null;
+            if (after != null && after.isInstruction() && !after.inSlot &&
+                !next.isBranch() && next.independentOf(after) &&
+                !after.reads(reg) && disjoint(after.defs, load.defs) &&
+                disjoint(after.defs, load.uses)) {
+                lines.remove(n + 1);
+                lines.add(k + 1, after);
+            } else {
+                lines.add(k + 1, nop());
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import java_cup.runtime.*;
+
+/**
+ * A hand-written recursive-descent parser for cimple, which can be used in
+ * place of the parser generated by CUP from cimple.cup.
+ *
+ * It accepts the same programs and builds the same ASTs. Expressions are
+ * parsed by precedence climbing, using the precedences declared in
+ * cimple.cup: assignment, which can only start with a loc, is parsed as a
+ * primary whose right-hand side is a whole expression (so it is right
+ * associative and binds loosest); then ||, &&, the (non-associative)
+ * equality and relational operators, + and -, * and /, and ! (whose operand
+ * is just a primary). Note that unary minus, having no precedence of its
+ * own in cimple.cup, has that of binary minus, so -a * b is -(a * b).
+ *
+ * Like the CUP parser, it reads one token ahead of what it has parsed, so
+ * a syntax error is reported at the same token, after the same scanner
+ * messages, and with the same message.
+ */
+class DescentParser {
+    // precedences of the binary operators, and of !
+    private static final int OR_PREC = 1;
+    private static final int AND_PREC = 2;
+    private static final int REL_PREC = 3;   // non-associative
+    private static final int ADD_PREC = 4;
+    private static final int MUL_PREC = 5;
+    private static final int NOT_PREC = 6;
+
+    private Scanner scanner;
+    private Symbol tok;     // the next token
+    private DeclHandler declHandler = null;
+
+    public DescentParser(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Hand each top-level decl to handler as soon as it is parsed,
+     * leaving the ProgramNode empty (null: keep them, the default).
+     */
+    public void setDeclHandler(DeclHandler handler) {
+        declHandler = handler;
+    }
+
+    /**
+     * Parse the program.
+     * @return a Symbol whose value is the ProgramNode, as parser.parse
+     */
+    public Symbol parse() throws Exception {
+        tok = scanner.next_token();
+        List<DeclNode> decls = new ArrayList<DeclNode>();
+        while (tok.sym != sym.EOF) {
+            DeclNode decl = decl();
+            if (declHandler != null) {
+                declHandler.decl(decl);
+            }
+            else {
+                decls.add(decl);
+            }
+        }
+        return new Symbol(sym.EOF, new ProgramNode(new DeclListNode(decls)));
+    }
+
+    private DeclNode decl() throws Exception {
+        if (tok.sym == sym.STRUCT) {
+            advance();
+            IdNode name = id();
+            if (tok.sym != sym.LCURLY) {
+                return structVarDecl(name);
+            }
+            advance();
+            List<DeclNode> fields = new ArrayList<DeclNode>();
+            do {
+                fields.add(varDecl());
+            } while (isTypeStart(tok.sym));
+            expect(sym.RCURLY);
+            expect(sym.SEMICOLON);
+            return new StructDeclNode(name, new DeclListNode(fields));
+        }
+
+        TypeNode type = type();
+        IdNode name = id();
+        if (tok.sym != sym.LPAREN) {
+            expect(sym.SEMICOLON);
+            return new VarDeclNode(type, name, VarDeclNode.NOT_STRUCT);
+        }
+
+        advance();
+        List<FormalDeclNode> formals = new ArrayList<FormalDeclNode>();
+        if (tok.sym != sym.RPAREN) {
+            formals.add(formalDecl());
+            while (tok.sym == sym.COMMA) {
+                advance();
+                formals.add(formalDecl());
+            }
+        }
+        expect(sym.RPAREN);
+        expect(sym.LCURLY);
+        DeclListNode vars = varDeclList();
+        StmtListNode stmts = stmtList();
+        expect(sym.RCURLY);
+        return new FnDeclNode(type, name, new FormalsListNode(formals),
+                              new FnBodyNode(vars, stmts));
+    }
+
+    private VarDeclNode varDecl() throws Exception {
+        if (tok.sym == sym.STRUCT) {
+            advance();
+            return structVarDecl(id());
+        }
+        TypeNode type = type();
+        IdNode name = id();
+        expect(sym.SEMICOLON);
+        return new VarDeclNode(type, name, VarDeclNode.NOT_STRUCT);
+    }
+
+    /**
+     * Parse the rest of a declaration of a variable of type struct name.
+     */
+    private VarDeclNode structVarDecl(IdNode name) throws Exception {
+        IdNode var = id();
+        expect(sym.SEMICOLON);
+        return new VarDeclNode(new StructNode(name), var, 0);
+    }
+
+    private FormalDeclNode formalDecl() throws Exception {
+        TypeNode type = type();
+        return new FormalDeclNode(type, id());
+    }
+
+    private DeclListNode varDeclList() throws Exception {
+        List<DeclNode> decls = new ArrayList<DeclNode>();
+        while (isTypeStart(tok.sym)) {
+            decls.add(varDecl());
+        }
+        return new DeclListNode(decls);
+    }
+
+    private StmtListNode stmtList() throws Exception {
+        List<StmtNode> stmts = new ArrayList<StmtNode>();
+        while (true) {
+            switch (tok.sym) {
+            case sym.ID:
+            case sym.CIN:
+            case sym.COUT:
+            case sym.IF:
+            case sym.WHILE:
+            case sym.RETURN:
+                stmts.add(stmt());
+                break;
+            default:
+                return new StmtListNode(stmts);
+            }
+        }
+    }
+
+    private StmtNode stmt() throws Exception {
+        StmtNode stmt;
+        ExpNode exp;
+        switch (tok.sym) {
+        case sym.CIN:
+            advance();
+            expect(sym.READ);
+            stmt = new ReadStmtNode(loc(id()));
+            break;
+
+        case sym.COUT:
+            advance();
+            expect(sym.WRITE);
+            stmt = new WriteStmtNode(exp(0));
+            break;
+
+        case sym.IF:
+            advance();
+            exp = condition();
+            expect(sym.LCURLY);
+            DeclListNode vars = varDeclList();
+            StmtListNode stmts = stmtList();
+            expect(sym.RCURLY);
+            if (tok.sym != sym.ELSE) {
+                return new IfStmtNode(exp, vars, stmts);
+            }
+            advance();
+            expect(sym.LCURLY);
+            DeclListNode elseVars = varDeclList();
+            StmtListNode elseStmts = stmtList();
+            expect(sym.RCURLY);
+            return new IfElseStmtNode(exp, vars, stmts, elseVars, elseStmts);
+
+        case sym.WHILE:
+            advance();
+            exp = condition();
+            expect(sym.LCURLY);
+            vars = varDeclList();
+            stmts = stmtList();
+            expect(sym.RCURLY);
+            return new WhileStmtNode(exp, vars, stmts);
+
+        case sym.RETURN:
+            advance();
+            if (tok.sym == sym.SEMICOLON) {
+                stmt = new ReturnStmtNode(null);
+            }
+            else {
+                stmt = new ReturnStmtNode(exp(0));
+            }
+            break;
+
+        default:  // sym.ID
+            IdNode name = id();
+            if (tok.sym == sym.LPAREN) {
+                stmt = new CallStmtNode(call(name));
+                break;
+            }
+            ExpNode loc = loc(name);
+            if (tok.sym == sym.ASSIGN) {
+                advance();
+                stmt = new AssignStmtNode(new AssignNode(loc, exp(0)));
+            }
+            else if (tok.sym == sym.PLUSPLUS) {
+                advance();
+                stmt = new PostIncStmtNode(loc);
+            }
+            else if (tok.sym == sym.MINUSMINUS) {
+                advance();
+                stmt = new PostDecStmtNode(loc);
+            }
+            else {
+                throw syntaxError();
+            }
+        }
+        expect(sym.SEMICOLON);
+        return stmt;
+    }
+
+    /**
+     * Parse the parenthesized condition of an if or while statement.
+     */
+    private ExpNode condition() throws Exception {
+        expect(sym.LPAREN);
+        ExpNode exp = exp(0);
+        expect(sym.RPAREN);
+        return exp;
+    }
+
+    /**
+     * Parse an expression whose binary operators all have precedence
+     * greater than minPrec.
+     */
+    private ExpNode exp(int minPrec) throws Exception {
+        ExpNode left = primary();
+        while (prec(tok.sym) > minPrec) {
+            int op = tok.sym;
+            int prec = prec(op);
+            advance();
+            left = binary(op, left, exp(prec));
+            if (prec == REL_PREC && prec(tok.sym) == REL_PREC) {
+                throw syntaxError();  // e.g., a < b < c
+            }
+        }
+        return left;
+    }
+
+    private ExpNode primary() throws Exception {
+        Symbol t = tok;
+        switch (tok.sym) {
+        case sym.NOT:
+            advance();
+            return new NotNode(exp(NOT_PREC));
+        case sym.MINUS:
+            advance();
+            return new UnaryMinusNode(exp(ADD_PREC));
+        case sym.INTLITERAL:
+            advance();
+            IntLitTokenVal i = (IntLitTokenVal)t.value;
+            return new IntLitNode(i.linenum, i.charnum, i.intVal);
+        case sym.STRINGLITERAL:
+            advance();
+            StrLitTokenVal s = (StrLitTokenVal)t.value;
+            return new StringLitNode(s.linenum, s.charnum, s.strVal);
+        case sym.TRUE:
+            advance();
+            return new TrueNode(((TokenVal)t.value).linenum,
+                                ((TokenVal)t.value).charnum);
+        case sym.FALSE:
+            advance();
+            return new FalseNode(((TokenVal)t.value).linenum,
+                                 ((TokenVal)t.value).charnum);
+        case sym.LPAREN:
+            advance();
+            ExpNode exp = exp(0);
+            expect(sym.RPAREN);
+            return exp;
+        case sym.ID:
+            IdNode name = id();
+            if (tok.sym == sym.LPAREN) {
+                return call(name);
+            }
+            ExpNode loc = loc(name);
+            if (tok.sym == sym.ASSIGN) {
+                advance();
+                return new AssignNode(loc, exp(0));
+            }
+            return loc;
+        default:
+            throw syntaxError();
+        }
+    }
+
+    /**
+     * Return the precedence of the given binary operator, or 0 if it is
+     * not one.
+     */
+    private static int prec(int kind) {
+        switch (kind) {
+        case sym.OR:
+            return OR_PREC;
+        case sym.AND:
+            return AND_PREC;
+        case sym.EQUALS:
+        case sym.NOTEQUALS:
+        case sym.LESS:
+        case sym.GREATER:
+        case sym.LESSEQ:
+        case sym.GREATEREQ:
+            return REL_PREC;
+        case sym.PLUS:
+        case sym.MINUS:
+            return ADD_PREC;
+        case sym.TIMES:
+        case sym.DIVIDE:
+            return MUL_PREC;
+        default:
+            return 0;
+        }
+    }
+
+    private ExpNode binary(int op, ExpNode left, ExpNode right) {
+        switch (op) {
+        case sym.OR:        return new OrNode(left, right);
+        case sym.AND:       return new AndNode(left, right);
+        case sym.EQUALS:    return new EqualsNode(left, right);
+        case sym.NOTEQUALS: return new NotEqualsNode(left, right);
+        case sym.LESS:      return new LessNode(left, right);
+        case sym.GREATER:   return new GreaterNode(left, right);
+        case sym.LESSEQ:    return new LessEqNode(left, right);
+        case sym.GREATEREQ: return new GreaterEqNode(left, right);
+        case sym.PLUS:      return new PlusNode(left, right);
+        case sym.MINUS:     return new MinusNode(left, right);
+        case sym.TIMES:     return new TimesNode(left, right);
+        default:            return new DivideNode(left, right);
+        }
+    }
+
+    /**
+     * Parse the rest of a call of the function name (the next token is
+     * the left parenthesis).
+     */
+    private CallExpNode call(IdNode name) throws Exception {
+        advance();
+        if (tok.sym == sym.RPAREN) {
+            advance();
+            return new CallExpNode(name);
+        }
+        List<ExpNode> actuals = new ArrayList<ExpNode>();
+        actuals.add(exp(0));
+        while (tok.sym == sym.COMMA) {
+            advance();
+            actuals.add(exp(0));
+        }
+        expect(sym.RPAREN);
+        return new CallExpNode(name, new ExpListNode(actuals));
+    }
+
+    /**
+     * Parse the rest of a loc that starts with name.
+     */
+    private ExpNode loc(IdNode name) throws Exception {
+        ExpNode loc = name;
+        while (tok.sym == sym.DOT) {
+            advance();
+            loc = new DotAccessExpNode(loc, id());
+        }
+        return loc;
+    }
+
+    private IdNode id() throws Exception {
+        if (tok.sym != sym.ID) {
+            throw syntaxError();
+        }
+        IdTokenVal i = (IdTokenVal)tok.value;
+        advance();
+        return new IdNode(i.linenum, i.charnum, i.idVal);
+    }
+
+    private TypeNode type() throws Exception {
+        TypeNode type;
+        if (tok.sym == sym.INT) {
+            type = new IntNode();
+        }
+        else if (tok.sym == sym.BOOL) {
+            type = new BoolNode();
+        }
+        else if (tok.sym == sym.VOID) {
+            type = new VoidNode();
+        }
+        else {
+            throw syntaxError();
+        }
+        advance();
+        return type;
+    }
+
+    private static boolean isTypeStart(int kind) {
+        return kind == sym.INT || kind == sym.BOOL || kind == sym.VOID ||
+               kind == sym.STRUCT;
+    }
+
+    private void expect(int kind) throws Exception {
+        if (tok.sym != kind) {
+            throw syntaxError();
+        }
+        advance();
+    }
+
+    private void advance() throws Exception {
+        tok = scanner.next_token();
+    }
+
+    /**
+     * Report a syntax error at the next token, as the CUP parser does.
+     * @return the exception to throw, abandoning the parse
+     */
+    private Exception syntaxError() {
+        if (tok.value == null) {
+            ErrMsg.fatal(0,0, "Syntax error at end of file");
+        }
+        else {
+            ErrMsg.fatal(((TokenVal)tok.value).linenum,
+                         ((TokenVal)tok.value).charnum,
+                         "Syntax error");
+        }
+        return new Exception("Syntax error");
+    }
+}
@@ -1,11 +1,96 @@
+import java.io.*;
+
 /**
  * ErrMsg
  *
  * This class is used to generate warning and fatal error messages.
+ *
+ * Messages are sent to the ErrMsg object installed for the current thread,
+ * which by default prints them to System.err. Work done on another thread
+ * (e.g., type checking one function in parallel with the others) installs
+ * a buffered ErrMsg, and the thread that started the work replays the
+ * buffers in source order so the messages come out as they would serially.
+ * A buffered ErrMsg can be saved, messages and all (see AstWriter).
  */
 class ErrMsg {
-	private static boolean err = false;
-	
+	private static final ThreadLocal<ErrMsg> current =
+		new ThreadLocal<ErrMsg>() {
+			protected ErrMsg initialValue() {
+				return new ErrMsg(System.err);
+			}
+		};
+
+	private boolean err = false;
+	private PrintStream out;	// null if messages are buffered
+	private StringBuilder buffer = new StringBuilder();
+
+	private ErrMsg(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Returns a new ErrMsg that keeps its messages until they are
+	 * replayed.
+	 */
+	static ErrMsg buffered() {
+		return new ErrMsg(null);
+	}
+
+	/**
+	 * Returns a buffered ErrMsg holding the given messages, as if they
+	 * had been reported to it (see AstReader); err says whether any of
+	 * them was an error.
+	 */
+	static ErrMsg buffered(String text, boolean err) {
+		ErrMsg msgs = new ErrMsg(null);
+		msgs.buffer.append(text);
+		msgs.err = err;
+		return msgs;
+	}
+
+	/**
+	 * Returns true if an error has been reported to this ErrMsg.
+	 */
+	boolean hasError() {
+		return err;
+	}
+
+	/**
+	 * Returns true if no message has been reported to this ErrMsg.
+	 */
+	boolean isEmpty() {
+		return !err && buffer.length() == 0;
+	}
+
+	/**
+	 * Returns the messages kept by a buffered ErrMsg.
+	 */
+	String text() {
+		return buffer.toString();
+	}
+
+	/**
+	 * Makes msgs the ErrMsg for the current thread.
+	 * @return the ErrMsg it replaces
+	 */
+	static ErrMsg install(ErrMsg msgs) {
+		ErrMsg old = current.get();
+		current.set(msgs);
+		return old;
+	}
+
+	/**
+	 * Reports the messages (and the err flag) of a buffered ErrMsg to the
+	 * ErrMsg of the current thread.
+	 */
+	static void replay(ErrMsg msgs) {
+		ErrMsg to = current.get();
+		if (msgs.err) {
+			to.err = true;
+		}
+		to.print(msgs.buffer.toString());
+	}
+
     /**
      * Generates a fatal error message.
      * @param lineNum line number for error location
@@ -13,8 +98,10 @@ class ErrMsg {
      * @param msg associated message for error
      */
     static void fatal(int lineNum, int charNum, String msg) {
-		err = true;
-        System.err.println(lineNum + ":" + charNum + " ***ERROR*** " + msg);
+		ErrMsg to = current.get();
+		to.err = true;
+        to.print(lineNum + ":" + charNum + " ***ERROR*** " + msg +
+                 System.lineSeparator());
     }
 
     /**
@@ -24,13 +111,23 @@ class ErrMsg {
      * @param msg associated message for warning
      */
     static void warn(int lineNum, int charNum, String msg) {
-        System.err.println(lineNum + ":" + charNum + " ***WARNING*** " + msg);
+        current.get().print(lineNum + ":" + charNum + " ***WARNING*** " + msg +
+                            System.lineSeparator());
     }
-	
+
 	/**
 	 * Returns the err flag.
 	 */
 	static boolean getErr() {
-		return err;
+		return current.get().err;
+	}
+
+	private void print(String text) {
+		if (out == null) {
+			buffer.append(text);
+		}
+		else {
+			out.print(text);
+		}
 	}
 }
@@ -0,0 +1,125 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * The Linker class makes one program out of units compiled separately
+ * (P6 --unit):
+ *
+ *     java Linker <outfile> <unit.s> ...
+ *
+ * Each unit's interface (unit.iface, see ModuleInterface) must be beside
+ * its assembly. The code of the units is written out in the order given,
+ * followed by one data section holding the string literals of all of
+ * them (each once, shared between units as StringPool shares tails).
+ *
+ * Before anything is written, the symbols are resolved: every _name a
+ * unit refers to (a function it calls, a global it uses) must be defined
+ * by exactly one unit, and exactly one unit must define main. Otherwise
+ * the problems are printed and the Linker exits with -1.
+ */
+public class Linker {
+    // a name referred to in an instruction (not a local .L label)
+    private static final Pattern SYMBOL = Pattern.compile("(?<![\\w.$])_\\w+");
+
+    private List<String> units = new ArrayList<String>();
+    private List<List<String>> code = new ArrayList<List<String>>();
+    private StringPool strings = new StringPool();
+    private List<String> errors = new ArrayList<String>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: java Linker <outfile> <unit.s> ...");
+            System.exit(-1);
+        }
+        Linker linker = new Linker();
+        for (int k = 1; k < args.length; k++) {
+            linker.add(args[k]);
+        }
+        if (!linker.link(args[0])) {
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Add a unit, given the name of its assembly file.
+     */
+    public void add(String unit) throws IOException {
+        units.add(unit);
+        code.add(Files.readAllLines(Paths.get(unit), StandardCharsets.UTF_8));
+        File iface = new File(ModuleInterface.fileFor(unit));
+        for (String literal : ModuleInterface.read(iface).strings()) {
+            strings.add(literal);
+        }
+    }
+
+    /**
+     * Resolve the symbols of the units added and, if they all resolve,
+     * write the program to the named file.
+     * @return false if there were problems (they have been printed)
+     */
+    public boolean link(String outName) throws IOException {
+        resolve();
+        if (!errors.isEmpty()) {
+            for (String error : errors) {
+                System.err.println(error);
+            }
+            return false;
+        }
+
+        try (PrintWriter out = new PrintWriter(outName, "UTF-8")) {
+            for (List<String> lines : code) {
+                for (String line : lines) {
+                    out.println(line);
+                }
+            }
+            Codegen p = new Codegen(out);
+            strings.codeGen(p);
+            p.flush();
+        }
+        return true;
+    }
+
+    private void resolve() {
+        // symbol to the unit defining it
+        Map<String, String> defined = new HashMap<String, String>();
+        // symbol to the first unit referring to it
+        Map<String, String> used = new TreeMap<String, String>();
+        for (int k = 0; k < units.size(); k++) {
+            String unit = units.get(k);
+            for (String line : code.get(k)) {
+                int hash = line.indexOf('#');
+                String text = (hash < 0) ? line : line.substring(0, hash);
+                int colon = text.indexOf(':');
+                if (colon > 0 && !Character.isWhitespace(text.charAt(0))) {
+                    String label = text.substring(0, colon);
+                    text = text.substring(colon + 1);
+                    if (!label.startsWith(".")) {
+                        String other = defined.put(label, unit);
+                        if (other != null) {
+                            errors.add(label + " is defined in both " +
+                                       other + " and " + unit);
+                        }
+                    }
+                }
+                Matcher m = SYMBOL.matcher(text);
+                while (m.find()) {
+                    if (!used.containsKey(m.group())) {
+                        used.put(m.group(), unit);
+                    }
+                }
+            }
+        }
+        if (!defined.containsKey("main")) {
+            errors.add("No main function in any unit");
+        }
+        for (Map.Entry<String, String> use : used.entrySet()) {
+            if (!defined.containsKey(use.getKey())) {
+                errors.add("undefined symbol " + use.getKey() + " used in " +
+                           use.getValue());
+            }
+        }
+    }
+}
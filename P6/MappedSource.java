@@ -0,0 +1,75 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * MappedSource gives access to a source file through a read-only memory
+ * mapping, so that a large (e.g., generated) source file does not have to
+ * be read through a Reader and copied into a char array before scanning.
+ *
+ * A file that is all ASCII is scanned straight out of the mapping: each
+ * byte is a char, and only the text of identifiers and literals is ever
+ * copied. Any other file is decoded with the default charset, as a
+ * FileReader would, so the scanner sees the same chars either way.
+ */
+class MappedSource {
+    /**
+     * Map the named file and return its text.
+     */
+    public static CharSequence map(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename),
+                                               StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is too large to map");
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            for (int k = 0; k < size; k++) {
+                if (bytes.get(k) < 0) {
+                    return Charset.defaultCharset().decode(bytes);
+                }
+            }
+            return new AsciiText(bytes, 0, (int)size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The text of a buffer of ASCII bytes, one char per byte.
+     */
+    private static class AsciiText implements CharSequence {
+        private ByteBuffer bytes;
+        private int start;
+        private int length;
+
+        AsciiText(ByteBuffer bytes, int start, int length) {
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return (char)bytes.get(start + index);
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            return new AsciiText(bytes, start + from, to - from);
+        }
+
+        public String toString() {
+            byte[] text = new byte[length];
+            bytes.get(start, text);
+            return new String(text, StandardCharsets.US_ASCII);
+        }
+    }
+}
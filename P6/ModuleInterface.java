@@ -0,0 +1,251 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A ModuleInterface describes what one separately compiled unit (P6
+ * --unit) declares at the top level, so that other units can use it, and
+ * lists the string literals its code refers to, so that the Linker can
+ * write them out once for the whole program. It is kept in a text file
+ * beside the unit's assembly (foo.s, foo.iface), one line per
+ * declaration, in declaration order:
+ *
+ *     # cimple interface 1
+ *     struct Point x int y int
+ *     global count int
+ *     global origin struct:Point
+ *     fn add int int int          (return type, then the formals)
+ *     string "hello\n"            (as written in the source)
+ *
+ * Types are int, bool, void, or struct:<name> for a struct type, which
+ * must be declared by the same interface or by one used with it.
+ *
+ * A unit compiled with --use=foo.iface can use the names foo.iface
+ * declares as if they were declared at the top of the unit; they are not
+ * defined again by its code.
+ */
+class ModuleInterface {
+    private static final String HEADER = "# cimple interface 1";
+
+    private String source;   // the file it was read from, for messages
+    private List<String> lines = new ArrayList<String>();
+
+    private ModuleInterface(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Return the name of the interface file of the unit whose assembly
+     * is in the named file.
+     */
+    public static String fileFor(String asmName) {
+        if (asmName.endsWith(".s")) {
+            asmName = asmName.substring(0, asmName.length() - 2);
+        }
+        return asmName + ".iface";
+    }
+
+    /**
+     * Read an interface file.
+     * @throws IOException if it cannot be read or is not an interface
+     */
+    public static ModuleInterface read(File file) throws IOException {
+        ModuleInterface iface = new ModuleInterface(file.toString());
+        List<String> text = Files.readAllLines(file.toPath(),
+                                               StandardCharsets.UTF_8);
+        if (text.isEmpty() || !text.get(0).equals(HEADER)) {
+            throw new IOException(file + " is not a cimple interface");
+        }
+        for (String line : text.subList(1, text.size())) {
+            String[] f = line.split(" ");
+            boolean ok;
+            if (f[0].equals("string")) {
+                ok = line.length() > "string ".length();
+            } else if (f[0].equals("struct")) {
+                ok = f.length % 2 == 0;
+            } else if (f[0].equals("global")) {
+                ok = f.length == 3;
+            } else if (f[0].equals("fn")) {
+                ok = f.length >= 3;
+            } else {
+                ok = line.isEmpty();
+            }
+            if (!ok) {
+                throw new IOException(file + ": bad line: " + line);
+            }
+            if (!line.isEmpty()) {
+                iface.lines.add(line);
+            }
+        }
+        return iface;
+    }
+
+    /**
+     * Return the interface of a unit that has been through name analysis:
+     * its top-level declarations and its string literals.
+     */
+    public static ModuleInterface export(ProgramNode root) {
+        return export(root, root.stringPool());
+    }
+
+    /**
+     * As above, given the pool of the string literals of the unit.
+     */
+    public static ModuleInterface export(ProgramNode root,
+                                         StringPool strings) {
+        ModuleInterface iface = new ModuleInterface(null);
+        SymTable globals = root.globals();
+        Set<String> done = new HashSet<String>();
+        for (DeclNode decl : root.declList().decls()) {
+            String name = decl.name();
+            SemSym sym = globals.lookupGlobal(name);
+            if (sym == null || !done.add(name)) {
+                continue;  // a bad or multiple declaration
+            }
+            if (sym instanceof StructDefSym) {
+                StringBuilder line = new StringBuilder("struct " + name);
+                SymTable fields = ((StructDefSym)sym).getSymTable();
+                Set<String> fieldsDone = new HashSet<String>();
+                for (DeclNode field :
+                         ((StructDeclNode)decl).declList().decls()) {
+                    SemSym f = fields.lookupGlobal(field.name());
+                    if (f != null && fieldsDone.add(field.name())) {
+                        line.append(" " + field.name() + " " + type(f));
+                    }
+                }
+                iface.lines.add(line.toString());
+            } else if (sym instanceof FnSym) {
+                FnSym fn = (FnSym)sym;
+                StringBuilder line = new StringBuilder(
+                    "fn " + name + " " + type(fn.getReturnType()));
+                for (Type t : fn.getParamTypes()) {
+                    line.append(" " + type(t));
+                }
+                iface.lines.add(line.toString());
+            } else {
+                iface.lines.add("global " + name + " " + type(sym));
+            }
+        }
+        for (String literal : strings.literals()) {
+            iface.lines.add("string " + literal);
+        }
+        return iface;
+    }
+
+    private static String type(SemSym sym) {
+        return type(sym.getType());
+    }
+
+    private static String type(Type t) {
+        return t.isStructType() ? "struct:" + t : t.toString();
+    }
+
+    /**
+     * Return the names this interface declares.
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<String>();
+        for (String line : lines) {
+            if (!line.startsWith("string ")) {
+                names.add(line.split(" ")[1]);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Return the string literals, as written, that the unit refers to.
+     */
+    public List<String> strings() {
+        List<String> strings = new ArrayList<String>();
+        for (String line : lines) {
+            if (line.startsWith("string ")) {
+                strings.add(line.substring("string ".length()));
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * Declare the names of this interface, as globals, in symTab. A struct
+     * type that is neither in symTab nor declared here is reported, and
+     * what uses it is left out.
+     */
+    public void declare(SymTable symTab) {
+        for (String line : lines) {
+            String[] f = line.split(" ");
+            if (f[0].equals("string")) {
+                continue;
+            }
+            SemSym sym;
+            try {
+                if (f[0].equals("struct")) {
+                    SymTable fields = new SymTable();
+                    for (int k = 2; k < f.length; k += 2) {
+                        fields.addDecl(f[k], varSym(f[k + 1], symTab));
+                    }
+                    sym = new StructDefSym(fields);
+                } else if (f[0].equals("fn")) {
+                    List<Type> formals = new ArrayList<Type>();
+                    for (int k = 3; k < f.length; k++) {
+                        formals.add(varSym(f[k], symTab).getType());
+                    }
+                    FnSym fn = new FnSym(varSym(f[2], symTab).getType(),
+                                         formals.size());
+                    fn.addFormals(formals);
+                    sym = fn;
+                } else {
+                    sym = varSym(f[2], symTab);
+                    sym.makeGlobal();
+                }
+                symTab.addDecl(f[1], sym);
+            } catch (IllegalArgumentException ex) {
+                ErrMsg.fatal(0, 0, ex.getMessage() + " in " + source);
+            } catch (DuplicateSymException ex) {
+                ErrMsg.fatal(0, 0, "Multiply declared identifier " + f[1] +
+                             " in " + source);
+            } catch (EmptySymTableException ex) {
+                throw new CompileAbortException("Unexpected " +
+                    "EmptySymTableException in ModuleInterface.declare");
+            }
+        }
+    }
+
+    /**
+     * Return a symbol for a variable (or a function's return value) of
+     * the given type.
+     */
+    private static SemSym varSym(String type, SymTable symTab) {
+        if (type.equals("int")) {
+            return new SemSym(new IntType());
+        } else if (type.equals("bool")) {
+            return new SemSym(new BoolType());
+        } else if (type.equals("void")) {
+            return new SemSym(new VoidType());
+        } else if (type.startsWith("struct:")) {
+            String name = type.substring("struct:".length());
+            SemSym def = symTab.lookupGlobal(name);
+            if (!(def instanceof StructDefSym)) {
+                throw new IllegalArgumentException(
+                    "Invalid name of struct type " + name);
+            }
+            IdNode id = new IdNode(0, 0, name);
+            id.link(def);
+            return new StructSym(id);
+        }
+        throw new IllegalArgumentException("Invalid type " + type);
+    }
+
+    public void write(File file) throws IOException {
+        Files.write(file.toPath(), toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder(HEADER + "\n");
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+}
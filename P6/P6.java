@@ -1,6 +1,5 @@
 import java.io.*;
-
-import java_cup.runtime.*;
+import java.util.*;
 
 /**
  * Main program to test the parser.
@@ -11,16 +10,73 @@ import java_cup.runtime.*;
  *       unparsed
  * The program opens the two files, creates a scanner and a parser, and
  * calls the parser.  If the parse is successful, the AST is unparsed.
+ *
+ * The file arguments may be preceded by options:
+ *    --time-passes      print the time taken by each compiler pass
+ *    --skip=<pass>      do not run the named pass (nameAnalysis,
+ *                       typeCheck or codeGen)
+ *    --jobs=<n>         parse, type check and generate code for up to n
+ *                       declarations in parallel (the output is the same
+ *                       as with 1)
+ *    --incremental=<dir>  keep the code generated for each function in dir
+ *                       and reuse it for functions that have not changed
+ *    --ast-cache=<dir>  keep the analyzed AST of the file in dir, and only
+ *                       generate code for a file that has been compiled
+ *                       before
+ *    --scanner=<name>   use the scanner generated by JLex (jlex, the
+ *                       default) or the hand-written one (hand)
+ *    --mmap             memory-map the file to be parsed instead of
+ *                       reading it
+ *    --parser=<name>    use the parser generated by CUP (cup, the default)
+ *                       or the recursive-descent one (rd)
+ *    --stats[=<format>] print the wall time, CPU time and allocation of
+ *                       each phase, and counts of tokens, AST nodes,
+ *                       symbols, instructions and labels, as text (the
+ *                       default) or json
+ *    --unit             compile the file as one unit of a program made of
+ *                       several: write its interface beside the output
+ *                       file (foo.s, foo.iface), to be used by other units
+ *                       and by the Linker, which makes the program
+ *    --use=<iface>,...  let the unit use what the given interfaces
+ *                       declare (implies --unit)
+ *    --eliminate-dead   leave out the functions and globals that cannot
+ *                       be reached from main, and the strings only they
+ *                       use
+ *    --optimize-frames  allocate each function's frame with one
+ *                       instruction, address it without a frame pointer,
+ *                       and save the return address only in functions
+ *                       that call others
+ *    --delay-slots      write code for a MIPS with delay slots: fill each
+ *                       branch and load delay slot with an instruction
+ *                       that can be moved there, or a nop
+ *    --stream           compile each function as soon as it is parsed,
+ *                       rather than building the whole AST first, so that
+ *                       huge files can be compiled in little memory
+ *
+ * With --batch[=<n>], the arguments are instead any number of source files
+ * and directories, which are compiled in one run, up to n files at a time
+ * (by default, one per processor); see {@link BatchCompiler}.
  */
 public class P6 {
 	FileReader inFile;
+	private String inName;
+	private boolean mapInput = false;
 	private PrintWriter outFile;
+	private String outName;
 	private static PrintStream outStream = System.err;
+	private CimpleCompiler compiler = new CimpleCompiler();
+	private CimpleCompiler.Result result;	// of the last process
+	private boolean timePasses = false;
+	private int batch = 0;	// files compiled at once by --batch; 0: no batch
+	private List<String> batchFiles;
 	
-	public static final int RESULT_CORRECT = 0;
-	public static final int RESULT_SYNTAX_ERROR = 1;
-	public static final int RESULT_TYPE_ERROR = 2;
-	public static final int RESULT_OTHER_ERROR = -1;
+	public static final int RESULT_CORRECT = CimpleCompiler.RESULT_CORRECT;
+	public static final int RESULT_SYNTAX_ERROR =
+		CimpleCompiler.RESULT_SYNTAX_ERROR;
+	public static final int RESULT_TYPE_ERROR =
+		CimpleCompiler.RESULT_TYPE_ERROR;
+	public static final int RESULT_OTHER_ERROR =
+		CimpleCompiler.RESULT_OTHER_ERROR;
 
 	/**
 	 * P6 constructor for client programs and testers. Note that
@@ -37,16 +93,27 @@ public class P6 {
 	 * @param args command line args array for [<infile> <outfile>]
 	 */
 	private P6(String[] args){
+		CommandLine command = null;
+		try {
+			command = new CommandLine(Arrays.asList(args), null);
+			command.configure(compiler);
+		} catch (IllegalArgumentException e) {
+			pukeAndDie(e.getMessage());
+		} catch (IOException e) {
+			pukeAndDie(e.getMessage());
+		}
+		timePasses = command.timePasses();
+		setMapInput(command.mapInput());
+		batch = command.batch();
+
     	//Parse arguments    	
-        if (args.length < 2) {
-        	String msg = "please supply name of file to be parsed"
-        			+ "and name of file for unparsed version.";
-        	pukeAndDie(msg);
-        }
-		
+		if (batch > 0) {
+			batchFiles = command.files();
+			return;
+		}
 		try{
-			setInfile(args[0]);
-			setOutfile(args[1]);
+			setInfile(command.files().get(0));
+			setOutfile(command.files().get(1));
 		} catch(BadInfileException e){
             pukeAndDie(e.getMessage());			
 		} catch(BadOutfileException e){
@@ -61,6 +128,7 @@ public class P6 {
 	public void setInfile(String filename) throws BadInfileException{
         try {
             inFile = new FileReader(filename);
+            inName = filename;
         } catch (FileNotFoundException ex) {
         	throw new BadInfileException(ex, filename);
         }
@@ -73,11 +141,75 @@ public class P6 {
 	public void setOutfile(String filename) throws BadOutfileException{
         try {
             outFile = new PrintWriter(filename);
+            outName = filename;
         } catch (FileNotFoundException ex) {
         	throw new BadOutfileException(ex, filename);
         }
 	}
 	
+	/**
+	 * Do not run the named compiler pass
+	 * @param name one of nameAnalysis, typeCheck, codeGen
+	 */
+	public void skipPass(String name){
+		compiler.skipPass(name);
+	}
+
+	/**
+	 * Number of functions to type check and generate code for in parallel
+	 * @param jobs parallelism; 1 (the default) runs everything serially
+	 */
+	public void setJobs(int jobs){
+		compiler.setJobs(jobs);
+	}
+
+	/**
+	 * Directory in which to keep the code generated for each function,
+	 * so that unchanged functions are not generated again
+	 * @param dirname cache directory (created if necessary)
+	 */
+	public void setCacheDir(String dirname) throws IOException{
+		compiler.setCacheDir(dirname);
+	}
+
+	/**
+	 * Memory-map the source file for the scanner instead of reading it
+	 * (see {@link MappedSource})
+	 * @param map true to map the source file
+	 */
+	public void setMapInput(boolean map){
+		mapInput = map;
+	}
+
+	/**
+	 * Scanner to use for the source file
+	 * @param name jlex for the scanner generated from cimple.jlex (the
+	 *        default), or hand for {@link CimpleScanner}
+	 * @return false if there is no scanner with that name
+	 */
+	public boolean setScanner(String name){
+		return compiler.setScanner(name);
+	}
+
+	/**
+	 * Parser to use for the source file
+	 * @param name cup for the parser generated from cimple.cup (the
+	 *        default), or rd for {@link DescentParser}
+	 * @return false if there is no parser with that name
+	 */
+	public boolean setParser(String name){
+		return compiler.setParser(name);
+	}
+
+	/**
+	 * Time taken by the parse and each pass of the last call to
+	 * {@link process}
+	 * @return pass name to wall time in nanoseconds
+	 */
+	public Map<String, Long> passTimes(){
+		return result.times();
+	}
+
 	/**
 	 * Perform cleanup at the end of parsing. This should be called
 	 * after both good and bad input so that the files are all in a
@@ -120,44 +252,41 @@ public class P6 {
 		System.exit(-1);		
 	}
 	
-	/** the parser will return a Symbol whose value
-	 * field is the translation of the root nonterminal
-     * (i.e., of the nonterminal "program")
-	 * @return root of the CFG
+	/**
+	 * Compile the source file into the output file, printing any
+	 * messages to System.err, and the pass times and stats if asked for
+	 * (see {@link CommandLine#report}). The output is written even if
+	 * there are type errors, as code is generated for them too.
+	 * @return RESULT_CORRECT, RESULT_SYNTAX_ERROR or RESULT_OTHER_ERROR
 	 */
-	private Symbol parseCFG(){
+	public int process(){
 		try {
-	        parser P = new parser(new Yylex(inFile));
-	        return P.parse();
-		} catch (Exception e){
-			return null;
+			if (mapInput) {
+				result = compiler.compile(MappedSource.map(inName), outFile);
+			} else {
+				result = compiler.compile(inFile, outFile);
+			}
+		} catch (IOException e) {
+			pukeAndDie(e.getMessage());
 		}
-	}
-	
-	public int process(){
-		Symbol cfgRoot = parseCFG();
-		
-		ProgramNode astRoot = (ProgramNode)cfgRoot.value; 
-		if (ErrMsg.getErr()) {  
-			return P6.RESULT_SYNTAX_ERROR;
+		outFile.close();
+		try {
+			CommandLine.report(result, outName, timePasses, outStream);
+		} catch (IOException e) {
+			pukeAndDie(e.getMessage());
 		}
-		
-		astRoot.nameAnalysis();  // perform name analysis
-		
-		astRoot.typeCheck();	//perform type checking
-		
-	//	astRoot.unparse(outFile, 0);
-
-		Codegen.p = outFile;
-
-		astRoot.codeGen(Codegen.p);
-
-		Codegen.p.close();	
 
-		return P6.RESULT_CORRECT;
+		if (result.code() == RESULT_TYPE_ERROR) {
+			return P6.RESULT_CORRECT;
+		}
+		return result.code();
 	}
 	
 	public void run(){
+		if (batch > 0) {
+			runBatch();
+			return;
+		}
 		int resultCode = process();
 		if (resultCode == RESULT_CORRECT){
 			cleanup();
@@ -166,7 +295,10 @@ public class P6 {
 		
 		switch(resultCode){
 		case RESULT_SYNTAX_ERROR:
-			pukeAndDie("Syntax error", resultCode);
+		case RESULT_OTHER_ERROR:
+			// the reason has been printed with the other messages
+			cleanup();
+			System.exit(-1);
 		case RESULT_TYPE_ERROR:
 			pukeAndDie("Type checking error", resultCode);
 		default:
@@ -174,6 +306,23 @@ public class P6 {
 		}
 	}
 	
+	/**
+	 * Compile the files named for --batch, exiting with -1 if any of
+	 * them could not be compiled
+	 */
+	private void runBatch(){
+		BatchCompiler batchCompiler = new BatchCompiler(compiler, batch);
+		batchCompiler.setMapInput(mapInput);
+		batchCompiler.setTimePasses(timePasses);
+		try {
+			if (!batchCompiler.run(batchFiles)) {
+				System.exit(-1);
+			}
+		} catch (IOException e) {
+			pukeAndDie(e.getMessage());
+		}
+	}
+	
 	private class BadInfileException extends Exception{
 		private static final long serialVersionUID = 1L;		
 		private String message;
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * The ParseTables class keeps the tables of the parser generated by CUP
+ * (production, action and reduce) in a binary file, parser.tables, which
+ * is read when the parser class is loaded instead of the tables being
+ * decoded from the string literals CUP writes into parser.java.
+ *
+ * The file is made, and parser.java changed to load it, by a build step
+ * run once the parser generated by CUP has been compiled:
+ *
+ *     java ParseTables parser.java parser.tables
+ *
+ * after which parser.java is compiled again (see the Makefile).
+ * parser.tables must then be on the class path with parser.class.
+ *
+ * The file holds, after a magic number, each table in turn: the number
+ * of rows, then for each row its length and its entries, all as
+ * big-endian shorts and ints. Reading it takes a fraction of the time
+ * decoding the strings does, but only if the file is read directly:
+ * looking it up as a resource, or mapping it, means loading classes the
+ * JVM has not otherwise loaded yet, which costs more than the decoding.
+ */
+class ParseTables {
+    private static final int MAGIC = 0x43555054;  // "CUPT"
+    private static final String RESOURCE = "parser.tables";
+
+    // the tables, in the order they are in the file and in parser.java
+    private static final String[] NAMES = { "production", "action", "reduce" };
+
+    // the tables read from the file (loaded once, for all three)
+    private static short[][][] tables;
+
+    public static short[][] production() {
+        return table(0);
+    }
+
+    public static short[][] action() {
+        return table(1);
+    }
+
+    public static short[][] reduce() {
+        return table(2);
+    }
+
+    private static synchronized short[][] table(int k) {
+        if (tables == null) {
+            try {
+                tables = read(load());
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "cannot read " + RESOURCE + ": " + e.getMessage(), e);
+            }
+        }
+        return tables[k];
+    }
+
+    /**
+     * Read the whole of parser.tables. The directories on the class path
+     * are tried first, as reading a file is much quicker than looking the
+     * resource up through the class loader in a JVM that has just started.
+     */
+    private static byte[] load() throws IOException {
+        String path = System.getProperty("java.class.path", "");
+        for (String dir : path.split(File.pathSeparator)) {
+            File file = new File(dir.isEmpty() ? "." : dir, RESOURCE);
+            if (file.isFile()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    return in.readAllBytes();
+                }
+            }
+        }
+        InputStream in = ParseTables.class.getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new FileNotFoundException(RESOURCE + " not on the class path");
+        }
+        try {
+            return in.readAllBytes();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static short[][][] read(byte[] buf) throws IOException {
+        try {
+            int pos = 0;
+            if (getInt(buf, pos) != MAGIC) {
+                throw new IOException("not a parse table file");
+            }
+            pos += 4;
+            short[][][] t = new short[NAMES.length][][];
+            for (int k = 0; k < t.length; k++) {
+                t[k] = new short[getInt(buf, pos)][];
+                pos += 4;
+                for (int row = 0; row < t[k].length; row++) {
+                    short[] r = new short[getInt(buf, pos)];
+                    pos += 4;
+                    for (int e = 0; e < r.length; e++, pos += 2) {
+                        r[e] = (short)((buf[pos] << 8) | (buf[pos + 1] & 0xff));
+                    }
+                    t[k][row] = r;
+                }
+            }
+            return t;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("parse table file is truncated");
+        }
+    }
+
+    private static int getInt(byte[] buf, int pos) {
+        return (buf[pos] << 24) | ((buf[pos + 1] & 0xff) << 16) |
+            ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+    }
+
+    private static void write(short[][][] t, DataOutputStream out)
+        throws IOException {
+        out.writeInt(MAGIC);
+        for (short[][] table : t) {
+            out.writeInt(table.length);
+            for (short[] row : table) {
+                out.writeInt(row.length);
+                for (short s : row) {
+                    out.writeShort(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the tables of the compiled parser class to the given file, and
+     * change the given parser source to load them from it.
+     */
+    @SuppressWarnings("deprecation")
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println(
+                "usage: java ParseTables parser.java parser.tables");
+            System.exit(-1);
+        }
+
+        parser P = new parser();
+        short[][][] t = {
+            P.production_table(), P.action_table(), P.reduce_table()
+        };
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(args[1])))) {
+            write(t, out);
+        }
+
+        // replace each "unpackFromStrings(new String[] { ... })" with a
+        // call to the method that returns the same table from the file
+        Path source = Paths.get(args[0]);
+        String text = new String(Files.readAllBytes(source), "UTF-8");
+        String unpack = "unpackFromStrings(new String[] {";
+        for (String name : NAMES) {
+            int field = text.indexOf("_" + name + "_table");
+            int start = (field < 0) ? -1 : text.indexOf(unpack, field);
+            if (start < 0 || text.indexOf(';', field) < start) {
+                continue;  // already replaced
+            }
+            int end = endOfStrings(text, start + unpack.length());
+            text = text.substring(0, start) + "ParseTables." + name + "()" +
+                text.substring(end);
+        }
+        Files.write(source, text.getBytes("UTF-8"));
+    }
+
+    /**
+     * Return the index just past the ')' that closes the string array
+     * starting at the given index of text (the index after its '{').
+     */
+    private static int endOfStrings(String text, int k) {
+        boolean inString = false;
+        for (; k < text.length(); k++) {
+            char c = text.charAt(k);
+            if (inString) {
+                if (c == '\\') {
+                    k++;
+                }
+                else if (c == '"') {
+                    inString = false;
+                }
+            }
+            else if (c == '"') {
+                inString = true;
+            }
+            else if (c == '}') {
+                return text.indexOf(')', k) + 1;
+            }
+        }
+        throw new IllegalArgumentException("unterminated table in parser.java");
+    }
+}
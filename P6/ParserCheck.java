@@ -0,0 +1,84 @@
+import java.io.*;
+
+import java_cup.runtime.*;
+
+/**
+ * Checks that DescentParser and the CUP parser agree: for each source file
+ * named on the command line, both parsers are given the same tokens, and
+ * the messages they report and the ASTs they build (unparsed, with the
+ * line and character numbers of every expression) must be the same.
+ *
+ *     java ParserCheck file.cimple ...
+ *
+ * Prints one line per file and exits with status 1 if any file differs.
+ * (make check-parser runs it on the sample programs.)
+ */
+public class ParserCheck {
+    public static void main(String[] args) throws Exception {
+        boolean ok = true;
+        for (String filename : args) {
+            TokenBuffer tokens = new TokenBuffer(
+                ScannerFactory.HAND.create(new FileReader(filename)));
+            String cup = parse(tokens, false);
+            String rd = parse(tokens, true);
+            if (cup.equals(rd)) {
+                System.out.println(filename + ": same");
+            }
+            else {
+                System.out.println(filename + ": DIFFERENT");
+                System.out.println("--- CUP parser:");
+                System.out.print(cup);
+                System.out.println("--- DescentParser:");
+                System.out.print(rd);
+                ok = false;
+            }
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parse the tokens and return what the parser reported, followed by a
+     * description of the AST (if the parse succeeded).
+     */
+    private static String parse(TokenBuffer tokens, boolean descent) {
+        ErrMsg msgs = ErrMsg.buffered();
+        ErrMsg old = ErrMsg.install(msgs);
+        StringWriter out = new StringWriter();
+        try {
+            Symbol root;
+            if (descent) {
+                root = new DescentParser(tokens.scanner()).parse();
+            }
+            else {
+                root = new parser(tokens.scanner()).parse();
+            }
+            describe((ProgramNode)root.value, new PrintWriter(out));
+        } catch (Exception e) {
+            out.write("parse failed: " + e.getMessage() + "\n");
+        } finally {
+            ErrMsg.install(old);
+        }
+        return msgs.text() + out.toString();
+    }
+
+    private static void describe(ProgramNode root, final PrintWriter p) {
+        root.unparse(p, 0);
+        root.accept(new ASTVisitor() {
+            public boolean preVisit(ASTnode node) {
+                p.print(node.getClass().getName());
+                if (node instanceof ExpNode) {
+                    p.print(" " + ((ExpNode)node).lineNum() + ":" +
+                            ((ExpNode)node).charNum());
+                }
+                p.println();
+                return true;
+            }
+
+            public void postVisit(ASTnode node) {
+            }
+        });
+        p.flush();
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The PassManager class runs the compiler phases over a ProgramNode in the
+ * order they were added. Each pass is timed, and a pass can be skipped by
+ * name (it is up to the caller not to skip a pass that a later pass
+ * depends on, e.g., codeGen needs the types recorded by typeCheck).
+ *
+ * Each pass is also recorded as a Java Flight Recorder event (see
+ * CompilerEvents).
+ *
+ * Visitor-based analyses that do not depend on each other can be added
+ * together with addVisitors, in which case they share one walk of the tree.
+ */
+class PassManager {
+    private List<Pass> passes = new ArrayList<Pass>();
+    private Set<String> skipped = new HashSet<String>();
+    private Map<String, Long> times = new LinkedHashMap<String, Long>();
+    private CompileStats stats = null;
+
+    /**
+     * Add a pass to the end of the pipeline.
+     */
+    public void add(Pass pass) {
+        passes.add(pass);
+    }
+
+    /**
+     * Add a single pass that runs all of the given visitors in one
+     * traversal of the tree.
+     */
+    public void addVisitors(String name, final List<ASTVisitor> visitors) {
+        passes.add(new Pass(name) {
+            public void run(ProgramNode root) {
+                root.accept(new FusedVisitor(visitors));
+            }
+        });
+    }
+
+    /**
+     * Also record the CPU time and allocation of each pass in stats
+     * (nothing is recorded if it is null).
+     */
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Do not run the pass with the given name.
+     */
+    public void skip(String name) {
+        skipped.add(name);
+    }
+
+    /**
+     * Run every pass that has not been skipped, recording its wall time.
+     */
+    public void run(ProgramNode root) {
+        for (Pass pass : passes) {
+            if (skipped.contains(pass.name())) {
+                continue;
+            }
+            long[] sample = (stats == null) ? null : stats.sample();
+            CompilerEvents.Phase event = new CompilerEvents.Phase(pass.name());
+            event.begin();
+            long start = System.nanoTime();
+            pass.run(root);
+            times.put(pass.name(), System.nanoTime() - start);
+            event.commit();
+            if (stats != null) {
+                stats.record(pass.name(), sample);
+            }
+        }
+    }
+
+    /**
+     * Return the wall time, in nanoseconds, of each pass that was run.
+     */
+    public Map<String, Long> times() {
+        return times;
+    }
+
+    /**
+     * Print one line per pass that was run: its name and time in ms.
+     */
+    public void printTimes(PrintStream out) {
+        for (Map.Entry<String, Long> e : times.entrySet()) {
+            out.printf("%-16s %10.3f ms%n", e.getKey(), e.getValue() / 1e6);
+        }
+    }
+}
+
+/**
+ * A Pass is one named phase of the compiler.
+ */
+abstract class Pass {
+    private String name;
+
+    public Pass(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    abstract public void run(ProgramNode root);
+}
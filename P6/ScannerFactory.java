@@ -0,0 +1,83 @@
+import java.io.*;
+
+import java_cup.runtime.*;
+
+/**
+ * A ScannerFactory creates a new scanner for each source file.
+ *
+ * Scanners keep all of their state (including the line and character
+ * numbers) to themselves, so the scanners created by a factory can be used
+ * at the same time on different threads, one scanner per thread.
+ */
+abstract class ScannerFactory {
+    /** the scanner generated by JLex from cimple.jlex */
+    public static final ScannerFactory JLEX = new ScannerFactory("jlex") {
+        public Scanner create(Reader in) {
+            return new Yylex(in);
+        }
+    };
+
+    /** the hand-written CimpleScanner */
+    public static final ScannerFactory HAND = new ScannerFactory("hand") {
+        public Scanner create(Reader in) throws IOException {
+            return new CimpleScanner(in);
+        }
+
+        public Scanner create(CharSequence text) {
+            return new CimpleScanner(text);
+        }
+    };
+
+    private String name;
+
+    protected ScannerFactory(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Return a new scanner reading from in.
+     */
+    abstract public Scanner create(Reader in) throws IOException;
+
+    /**
+     * Return a new scanner reading the given text (e.g., a file mapped by
+     * MappedSource). Scanners that can only read from a Reader get one
+     * that reads the text.
+     */
+    public Scanner create(final CharSequence text) throws IOException {
+        return create(new Reader() {
+            private int pos = 0;
+
+            public int read(char[] cbuf, int off, int len) {
+                if (pos == text.length()) {
+                    return -1;
+                }
+                int n = Math.min(len, text.length() - pos);
+                for (int k = 0; k < n; k++) {
+                    cbuf[off + k] = text.charAt(pos++);
+                }
+                return n;
+            }
+
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * Return the factory with the given name, or null if there is none.
+     */
+    public static ScannerFactory forName(String name) {
+        if (name.equals(JLEX.name())) {
+            return JLEX;
+        }
+        if (name.equals(HAND.name())) {
+            return HAND;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.*;
+
+/**
+ * The StreamCompiler class compiles a program one top-level declaration
+ * at a time, as the parser hands them over (see DeclHandler), so that the
+ * AST of a declaration can be dropped as soon as its code has been
+ * written: the memory a compilation needs is then about that of its
+ * largest function, plus the global symbol table and the string literals,
+ * rather than that of the whole file (CimpleCompiler.setStreaming).
+ *
+ * Each declaration is name-analyzed in the global scope, type checked and
+ * has its code generated before the next is parsed. As cimple names must
+ * be declared before they are used, that gives the same messages and the
+ * same code as compiling the whole AST: the messages of name analysis and
+ * of type checking are kept apart and reported, in that order, by finish,
+ * which also writes out the string literals after the last declaration.
+ * If the parse fails, finish is not called and nothing but the scanner
+ * and parser messages is reported; the code already written is then
+ * incomplete, as it is when a compilation is abandoned.
+ *
+ * A pass that fails on a declaration (throws other than
+ * CompileAbortException) abandons the compilation with a message saying
+ * so. If it is code generation that fails, no more code is generated, but
+ * the rest of the file is still analyzed, and finish reports the messages
+ * of the analysis before abandoning the compilation, so that they are
+ * those of a whole-AST compile, which analyzes everything first.
+ */
+class StreamCompiler implements DeclHandler {
+    private SymTable symTab = new SymTable();
+    private Codegen p;
+    private CodeCache cache;
+    private Set<String> skipped;
+    private StringPool strings = new StringPool();
+
+    private ErrMsg nameMsgs = ErrMsg.buffered();
+    private ErrMsg typeMsgs = ErrMsg.buffered();
+
+    // time spent so far in each pass, in nanoseconds
+    private long nameAnalysis = 0;
+    private long typeCheck = 0;
+    private long codeGen = 0;
+
+    // the first failure of code generation, if any
+    private CompileAbortException codeGenFailure = null;
+
+    /**
+     * @param p where the code goes
+     * @param cache code of unchanged functions, or null
+     * @param skipped the names of the passes not to run
+     */
+    public StreamCompiler(Codegen p, CodeCache cache, Set<String> skipped) {
+        this.p = p;
+        this.cache = cache;
+        this.skipped = skipped;
+    }
+
+    public void decl(DeclNode node) {
+        DeclListNode list = new DeclListNode(Collections.singletonList(node));
+        list.makeGlobal();
+
+        if (!skipped.contains("nameAnalysis")) {
+            long start = System.nanoTime();
+            ErrMsg old = ErrMsg.install(nameMsgs);
+            try {
+                list.nameAnalysis(symTab);
+            } catch (CompileAbortException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                ErrMsg.install(old);
+                throw abandon(ex, "nameAnalysis", node);
+            } finally {
+                ErrMsg.install(old);
+                nameAnalysis += System.nanoTime() - start;
+            }
+        }
+        if (!skipped.contains("typeCheck")) {
+            long start = System.nanoTime();
+            ErrMsg old = ErrMsg.install(typeMsgs);
+            try {
+                list.typeCheck();
+            } catch (CompileAbortException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                ErrMsg.install(old);
+                throw abandon(ex, "typeCheck", node);
+            } finally {
+                ErrMsg.install(old);
+                typeCheck += System.nanoTime() - start;
+            }
+        }
+        if (!skipped.contains("codeGen") && codeGenFailure == null) {
+            long start = System.nanoTime();
+            try {
+                list.codeGen(p, null, cache);
+                strings.addAll(node);
+            } catch (CompileAbortException ex) {
+                codeGenFailure = ex;
+            } catch (RuntimeException ex) {
+                codeGenFailure = new CompileAbortException("Unexpected " + ex +
+                    " in codeGen of " + node.name());
+            } finally {
+                codeGen += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Report the messages of the declarations analyzed so far and return
+     * the exception with which to abandon the compilation because pass
+     * failed on node.
+     */
+    private CompileAbortException abandon(RuntimeException ex, String pass,
+                                          DeclNode node) {
+        ErrMsg.replay(nameMsgs);
+        ErrMsg.replay(typeMsgs);
+        return new CompileAbortException("Unexpected " + ex + " in " + pass +
+                                         " of " + node.name());
+    }
+
+    /**
+     * Report the messages of the declarations handled, check that there
+     * is a main function and write out the string literals.
+     * @throws CompileAbortException if code generation failed on a
+     *         declaration (after the messages are reported)
+     */
+    public void finish() {
+        ErrMsg.replay(nameMsgs);
+        if (!skipped.contains("nameAnalysis")) {
+            ProgramNode.checkMain(symTab);
+        }
+        ErrMsg.replay(typeMsgs);
+        if (codeGenFailure != null) {
+            throw codeGenFailure;
+        }
+        if (!skipped.contains("codeGen")) {
+            long start = System.nanoTime();
+            strings.codeGen(p);
+            p.flush();
+            codeGen += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Return the time, in nanoseconds, of each pass that was run, summed
+     * over the declarations.
+     */
+    public Map<String, Long> times() {
+        Map<String, Long> times = new LinkedHashMap<String, Long>();
+        if (!skipped.contains("nameAnalysis")) {
+            times.put("nameAnalysis", nameAnalysis);
+        }
+        if (!skipped.contains("typeCheck")) {
+            times.put("typeCheck", typeCheck);
+        }
+        if (!skipped.contains("codeGen")) {
+            times.put("codeGen", codeGen);
+        }
+        return times;
+    }
+}
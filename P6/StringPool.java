@@ -0,0 +1,190 @@
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+
+/**
+ * The StringPool class holds the string literals of a program so that they
+ * can be emitted together, once each, in a single .data section at the end
+ * of the generated code.
+ *
+ * A literal that is a tail of a longer one is not emitted separately: its
+ * label is placed inside the longer literal, which is emitted as a series
+ * of .ascii pieces (the last one .asciiz), e.g., for "hello" and "lo":
+ *
+ *     .LS...:  .ascii   "hel"
+ *     .LS...:  .asciiz  "lo"
+ *
+ * The label of a literal depends only on the literal itself (see label),
+ * so code that refers to it can be generated, in parallel or from the
+ * CodeCache, without knowing what else is in the pool.
+ */
+class StringPool {
+    // distinct literals, as written (with quotes and escapes)
+    private Set<String> literals = new LinkedHashSet<String>();
+
+    /**
+     * Return the label of the given literal (as written, with quotes).
+     */
+    public static String label(String literal) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(literal.getBytes(StandardCharsets.UTF_8));
+            StringBuilder lab = new StringBuilder(".LS");
+            for (int k = 0; k < 8; k++) {
+                lab.append(String.format("%02x", hash[k]));
+            }
+            return lab.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new CompileAbortException(
+                "SHA-256 not available in StringPool.label");
+        }
+    }
+
+    public void add(String literal) {
+        literals.add(literal);
+    }
+
+    /**
+     * Return the literals in the pool, as written, in the order added.
+     */
+    public Set<String> literals() {
+        return literals;
+    }
+
+    /**
+     * Add every string literal in the subtree rooted at node.
+     */
+    public void addAll(ASTnode node) {
+        node.accept(collector());
+    }
+
+    /**
+     * Return a visitor that adds to this pool every string literal in the
+     * tree it walks (so that the walk can be shared, see FusedVisitor).
+     */
+    public ASTVisitor collector() {
+        return new ASTVisitor() {
+            public boolean preVisit(ASTnode node) {
+                if (node instanceof StringLitNode) {
+                    add(((StringLitNode)node).strVal());
+                }
+                return true;
+            }
+
+            public void postVisit(ASTnode node) { }
+        };
+    }
+
+    /**
+     * Emit the .data section holding every literal in the pool.
+     */
+    public void codeGen(Codegen p) {
+        if (literals.isEmpty()) {
+            return;
+        }
+
+        // the characters of each literal (an escape sequence is one
+        // character), sorted by reversed contents so that a literal that
+        // is a tail of another comes right before it, or before another
+        // literal that it is also a tail of
+        List<String[]> strs = new ArrayList<String[]>();
+        for (String literal : literals) {
+            strs.add(chars(literal));
+        }
+        Collections.sort(strs, new Comparator<String[]>() {
+            public int compare(String[] s1, String[] s2) {
+                int i = s1.length - 1;
+                int j = s2.length - 1;
+                for (; i >= 0 && j >= 0; i--, j--) {
+                    int c = s1[i].compareTo(s2[j]);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return (i >= 0) ? 1 : ((j >= 0) ? -1 : 0);
+            }
+        });
+
+        // host[k] is the longest literal that literal k is a tail of
+        int[] host = new int[strs.size()];
+        for (int k = strs.size() - 1; k >= 0; k--) {
+            host[k] = k;
+            if (k + 1 < strs.size() && isTail(strs.get(k), strs.get(k + 1))) {
+                host[k] = host[k + 1];
+            }
+        }
+
+        // emit each host, putting the labels of its tails inside it
+        Set<String> labels = new HashSet<String>();
+        p.generate(".data");
+        for (int k = strs.size() - 1; k >= 0; k--) {
+            if (host[k] != k) {
+                continue;
+            }
+            // each tail labels the piece from where it starts to where the
+            // next (shorter) tail starts; tails come in order of decreasing
+            // length, beginning with the host itself
+            String[] str = strs.get(k);
+            for (int t = k; t >= 0 && host[t] == k; t--) {
+                String lab = label(literal(strs.get(t), 0, strs.get(t).length));
+                if (!labels.add(lab)) {
+                    throw new CompileAbortException("Duplicate label " + lab +
+                                                    " in StringPool.codeGen");
+                }
+                int start = str.length - strs.get(t).length;
+                if (t > 0 && host[t - 1] == k) {
+                    int end = str.length - strs.get(t - 1).length;
+                    p.generateLabeled(lab, ".ascii", literal(str, start, end));
+                }
+                else {
+                    p.generateLabeled(lab, ".asciiz",
+                                      literal(str, start, str.length));
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a literal (as written) into its characters, without the quotes.
+     */
+    private static String[] chars(String literal) {
+        List<String> chars = new ArrayList<String>();
+        for (int k = 1; k < literal.length() - 1; k++) {
+            if (literal.charAt(k) == '\\') {
+                chars.add(literal.substring(k, k + 2));
+                k++;
+            }
+            else {
+                chars.add(literal.substring(k, k + 1));
+            }
+        }
+        return chars.toArray(new String[chars.size()]);
+    }
+
+    /**
+     * Return the characters [start, end) of str as a quoted literal.
+     */
+    private static String literal(String[] str, int start, int end) {
+        StringBuilder lit = new StringBuilder("\"");
+        for (int k = start; k < end; k++) {
+            lit.append(str[k]);
+        }
+        return lit.append('"').toString();
+    }
+
+    /**
+     * Return true if tail is a tail of str.
+     */
+    private static boolean isTail(String[] tail, String[] str) {
+        if (tail.length > str.length) {
+            return false;
+        }
+        int off = str.length - tail.length;
+        for (int k = 0; k < tail.length; k++) {
+            if (!tail[k].equals(str[off + k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -53,6 +53,24 @@ public class SymTable {
         list.remove(0);
     }
     
+    /**
+     * Return the scopes, innermost first (see AstWriter).
+     */
+    List<HashMap<String, SemSym>> scopes() {
+        return list;
+    }
+    
+    /**
+     * Return the entries of each scope (innermost first) in name order.
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (HashMap<String, SemSym> symTab : list) {
+            str.append(new TreeMap<String, SemSym>(symTab));
+        }
+        return str.toString();
+    }
+    
     public void print() {
         System.out.print("\nSym Table\n");
         for (HashMap<String, SemSym> symTab : list) {
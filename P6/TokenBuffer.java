@@ -0,0 +1,205 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+import java_cup.runtime.*;
+
+/**
+ * A TokenBuffer holds every token of a source file, so that the file is
+ * scanned once and the tokens can be read, in any order and any number of
+ * times, by the parser (see scanner), by ChunkedParser, which parses runs
+ * of them in parallel and parses them all again if it has to, or by
+ * anything else that wants the text of a token (see text).
+ *
+ * The tokens are kept in parallel int arrays (kind, start offset, length,
+ * line and character number), a few bytes per token. Symbols are made
+ * only when the parser asks for them, with values taken from the text.
+ * That needs a scanner that reads text, i.e., CimpleScanner; for any other
+ * scanner the values of the tokens are kept as they are scanned.
+ *
+ * Messages reported by the scanner are kept with the token they come
+ * before, and reported again when that token is handed to a parser by
+ * scanner(start, end, true), or all at once by replayMessages.
+ */
+class TokenBuffer {
+    private int size = 0;
+    private int[] kinds = new int[1024];
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] lines = new int[1024];
+    private int[] charNums = new int[1024];
+
+    // the scanner that made the tokens, if it is a CimpleScanner
+    private CimpleScanner source;
+    // the value of each token, if the scanner is not a CimpleScanner
+    private Object[] values;
+
+    // scanner messages, keyed by the index of the token that follows them
+    private Map<Integer, ErrMsg> messages = new TreeMap<Integer, ErrMsg>();
+
+    /**
+     * Scan all the tokens of the given scanner, ending with EOF.
+     */
+    public TokenBuffer(Scanner scanner) throws Exception {
+        if (scanner instanceof CimpleScanner) {
+            source = (CimpleScanner)scanner;
+        }
+        else {
+            values = new Object[kinds.length];
+        }
+
+        ErrMsg msgs = ErrMsg.buffered();
+        ErrMsg old = ErrMsg.install(msgs);
+        try {
+            int kind;
+            do {
+                if (size == kinds.length) {
+                    grow();
+                }
+                if (source != null) {
+                    kind = source.scan();
+                    starts[size] = source.tokenStart();
+                    lengths[size] = source.tokenEnd() - source.tokenStart();
+                    lines[size] = source.tokenLine();
+                    charNums[size] = source.tokenCharNum();
+                    if (kind == sym.ID) {
+                        // intern it now, so that symbol only reads the
+                        // scanner's table of identifiers and can be called
+                        // from several threads at once
+                        source.identifier(source.tokenStart(),
+                                          source.tokenEnd());
+                    }
+                }
+                else {
+                    Symbol tok = scanner.next_token();
+                    kind = tok.sym;
+                    values[size] = tok.value;
+                    if (tok.value instanceof TokenVal) {
+                        lines[size] = ((TokenVal)tok.value).linenum;
+                        charNums[size] = ((TokenVal)tok.value).charnum;
+                    }
+                    starts[size] = -1;
+                    lengths[size] = -1;
+                }
+                kinds[size] = kind;
+                if (!msgs.isEmpty()) {
+                    messages.put(size, msgs);
+                    msgs = ErrMsg.buffered();
+                    ErrMsg.install(msgs);
+                }
+                size++;
+            } while (kind != sym.EOF);
+        } finally {
+            ErrMsg.install(old);
+        }
+    }
+
+    private void grow() {
+        int n = 2 * kinds.length;
+        kinds = resize(kinds, n);
+        starts = resize(starts, n);
+        lengths = resize(lengths, n);
+        lines = resize(lines, n);
+        charNums = resize(charNums, n);
+        if (values != null) {
+            Object[] bigger = new Object[n];
+            System.arraycopy(values, 0, bigger, 0, size);
+            values = bigger;
+        }
+    }
+
+    private int[] resize(int[] a, int n) {
+        int[] bigger = new int[n];
+        System.arraycopy(a, 0, bigger, 0, size);
+        return bigger;
+    }
+
+    /**
+     * Return the number of tokens, including the final EOF.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int kind(int k) {
+        return kinds[k];
+    }
+
+    public int line(int k) {
+        return lines[k];
+    }
+
+    public int charNum(int k) {
+        return charNums[k];
+    }
+
+    /**
+     * Return the text of token k as it is in the source file, or null if
+     * the scanner does not read text.
+     */
+    public String text(int k) {
+        if (source == null) {
+            return null;
+        }
+        return source.text(starts[k], starts[k] + lengths[k]);
+    }
+
+    /**
+     * Return a new Symbol for token k. (This may be called from several
+     * threads at once.)
+     */
+    public Symbol symbol(int k) {
+        if (kinds[k] == sym.EOF) {
+            return new Symbol(sym.EOF);
+        }
+        if (source == null) {
+            return new Symbol(kinds[k], values[k]);
+        }
+        return new Symbol(kinds[k],
+                          source.tokenVal(kinds[k], starts[k],
+                                        starts[k] + lengths[k],
+                                        lines[k], charNums[k]));
+    }
+
+    /**
+     * Report all the scanner messages, in order.
+     */
+    public void replayMessages() {
+        for (ErrMsg msgs : messages.values()) {
+            ErrMsg.replay(msgs);
+        }
+    }
+
+    /**
+     * Return a Scanner that returns all the tokens, reporting the scanner
+     * messages as it goes.
+     */
+    public Scanner scanner() {
+        return scanner(0, size - 1, true);
+    }
+
+    /**
+     * Return a Scanner that returns the tokens [start, end) and then EOF.
+     * @param replay report the scanner messages that come before each
+     *        token as it is returned
+     */
+    public Scanner scanner(final int start, final int end,
+                           final boolean replay) {
+        return new Scanner() {
+            private int next = start;
+
+            public Symbol next_token() {
+                if (next > end) {  // EOF, again
+                    return new Symbol(sym.EOF);
+                }
+                if (replay && messages.containsKey(next)) {
+                    ErrMsg.replay(messages.get(next));
+                }
+                if (next == end) {
+                    next++;
+                    return new Symbol(sym.EOF);
+                }
+                return symbol(next++);
+            }
+        };
+    }
+}
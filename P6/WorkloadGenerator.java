@@ -0,0 +1,414 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The WorkloadGenerator class writes random cimple programs, of a size and
+ * shape given by its settings, for benchmarks and scale tests:
+ *
+ *     java WorkloadGenerator [--<setting>=<n> ...] [<outfile>]
+ *
+ * The settings (and their defaults) are
+ *    seed        1    seed of the random choices; the same settings and
+ *                     seed always give the same program
+ *    functions   100  number of functions, besides main
+ *    globals     50   number of global int and bool variables
+ *    structs     4    number of struct types, each with a global variable
+ *    fields      8    number of fields of each struct type
+ *    statements  20   number of statements at the top level of a function
+ *    depth       3    depth to which if and while statements are nested
+ *                     (every function has one chain this deep)
+ *    length      4    number of operands in a chain of binary operators
+ *
+ * The programs are free of syntax and type errors: variables and
+ * functions are declared before they are used, calls match the formals,
+ * every function that returns a value ends with a return, and only ints
+ * and bools are assigned, read, written and compared. As the code
+ * generator does not handle structs, struct fields are only ever read,
+ * never assigned, incremented or read into (cin).
+ */
+public class WorkloadGenerator {
+    private long seed = 1;
+    private int functions = 100;
+    private int globals = 50;
+    private int structs = 4;
+    private int fields = 8;
+    private int statements = 20;
+    private int depth = 3;
+    private int length = 4;
+
+    private Random random;
+    private StringBuilder out;
+
+    // the names in scope, by type; params and locals of the current
+    // function are added at the end and removed when it is done
+    private List<String> ints;
+    private List<String> bools;
+    private List<String> fieldInts;   // e.g., gs0.f1
+    private List<String> fieldBools;
+    // the functions declared so far, by return type, with their formals
+    private List<Fn> fns;
+
+    private static class Fn {
+        String name;
+        String type;          // int, bool or void
+        List<String> formals = new ArrayList<String>();  // types
+
+        Fn(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        WorkloadGenerator gen = new WorkloadGenerator();
+        String outName = null;
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                if (!gen.setOption(arg)) {
+                    System.err.println("unknown or bad option " + arg);
+                    System.exit(-1);
+                }
+            }
+            else {
+                outName = arg;
+            }
+        }
+        String program = gen.generate();
+        if (outName == null) {
+            System.out.print(program);
+        }
+        else {
+            try (Writer w = new FileWriter(outName)) {
+                w.write(program);
+            }
+        }
+    }
+
+    /**
+     * Apply a setting given as --<setting>=<n>
+     * @return false if there is no such setting or n is not a number
+     */
+    public boolean setOption(String opt) {
+        int eq = opt.indexOf('=');
+        if (!opt.startsWith("--") || eq < 0) {
+            return false;
+        }
+        String name = opt.substring(2, eq);
+        long n;
+        try {
+            n = Long.parseLong(opt.substring(eq + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (n < 0 || (!name.equals("seed") && n > Integer.MAX_VALUE)) {
+            return false;
+        }
+        if (name.equals("seed")) {
+            seed = n;
+        } else if (name.equals("functions")) {
+            functions = (int)n;
+        } else if (name.equals("globals")) {
+            globals = (int)n;
+        } else if (name.equals("structs")) {
+            structs = (int)n;
+        } else if (name.equals("fields")) {
+            fields = (int)n;
+        } else if (name.equals("statements")) {
+            statements = (int)n;
+        } else if (name.equals("depth")) {
+            depth = (int)n;
+        } else if (name.equals("length")) {
+            length = (int)Math.max(1, n);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return a program made with the current settings.
+     */
+    public String generate() {
+        random = new Random(seed);
+        out = new StringBuilder();
+        ints = new ArrayList<String>();
+        bools = new ArrayList<String>();
+        fieldInts = new ArrayList<String>();
+        fieldBools = new ArrayList<String>();
+        fns = new ArrayList<Fn>();
+
+        for (int k = 0; k < globals; k++) {
+            String type = random.nextBoolean() ? "int" : "bool";
+            String name = "g" + type.charAt(0) + k;
+            out.append(type + " " + name + ";\n");
+            (type.equals("int") ? ints : bools).add(name);
+        }
+        for (int k = 0; k < structs; k++) {
+            out.append("struct S" + k + " {\n");
+            List<String> types = new ArrayList<String>();
+            for (int f = 0; f < fields; f++) {
+                String type = random.nextBoolean() ? "int" : "bool";
+                types.add(type);
+                out.append("    " + type + " f" + f + ";\n");
+            }
+            out.append("};\n");
+            out.append("struct S" + k + " gs" + k + ";\n");
+            for (int f = 0; f < fields; f++) {
+                (types.get(f).equals("int") ? fieldInts : fieldBools)
+                    .add("gs" + k + ".f" + f);
+            }
+        }
+
+        for (int k = 0; k < functions; k++) {
+            String[] types = { "int", "bool", "void" };
+            Fn fn = new Fn("fn" + k, types[random.nextInt(3)]);
+            int formals = random.nextInt(4);
+            for (int f = 0; f < formals; f++) {
+                fn.formals.add(random.nextBoolean() ? "int" : "bool");
+            }
+            function(fn);
+            fns.add(fn);
+        }
+        function(new Fn("main", "void"));
+        return out.toString();
+    }
+
+    private void function(Fn fn) {
+        int nInts = ints.size();
+        int nBools = bools.size();
+
+        out.append(fn.type + " " + fn.name + "(");
+        for (int f = 0; f < fn.formals.size(); f++) {
+            String type = fn.formals.get(f);
+            String name = "p" + type.charAt(0) + f;
+            out.append((f > 0 ? ", " : "") + type + " " + name);
+            (type.equals("int") ? ints : bools).add(name);
+        }
+        out.append(") {\n");
+        int locals = 2 + random.nextInt(4);
+        for (int k = 0; k < locals; k++) {
+            String type = random.nextBoolean() ? "int" : "bool";
+            String name = "l" + type.charAt(0) + k;
+            out.append("    " + type + " " + name + ";\n");
+            (type.equals("int") ? ints : bools).add(name);
+        }
+
+        nested(1, depth);
+        for (int k = 1; k < statements; k++) {
+            stmt(1);
+        }
+        if (fn.type.equals("int")) {
+            line(1, "return " + intExp(length, 2) + ";");
+        }
+        else if (fn.type.equals("bool")) {
+            line(1, "return " + boolExp(length, 2) + ";");
+        }
+        out.append("}\n");
+
+        // the function's names go out of scope
+        ints.subList(nInts, ints.size()).clear();
+        bools.subList(nBools, bools.size()).clear();
+    }
+
+    /**
+     * Write an if or while statement with another nested in it, and so on,
+     * to the given depth.
+     */
+    private void nested(int indent, int levels) {
+        if (levels == 0) {
+            simpleStmt(indent);
+            return;
+        }
+        String keyword = random.nextBoolean() ? "if" : "while";
+        line(indent, keyword + " (" + boolExp(length, 2) + ") {");
+        nested(indent + 1, levels - 1);
+        simpleStmt(indent + 1);
+        line(indent, "}");
+    }
+
+    private void stmt(int indent) {
+        if (indent <= depth && random.nextInt(4) == 0) {
+            int kind = random.nextInt(3);
+            line(indent, (kind == 2 ? "while" : "if") + " (" +
+                 boolExp(length, 2) + ") {");
+            int n = 1 + random.nextInt(3);
+            for (int k = 0; k < n; k++) {
+                stmt(indent + 1);
+            }
+            if (kind == 1) {
+                line(indent, "}");
+                line(indent, "else {");
+                stmt(indent + 1);
+            }
+            line(indent, "}");
+        }
+        else {
+            simpleStmt(indent);
+        }
+    }
+
+    private void simpleStmt(int indent) {
+        switch (random.nextInt(7)) {
+        case 0:
+            if (!ints.isEmpty()) {
+                line(indent, pick(ints) + (random.nextBoolean() ? "++;" : "--;"));
+                return;
+            }
+            break;
+        case 1:
+            if (!ints.isEmpty() || !bools.isEmpty()) {
+                line(indent, "cin >> " +
+                     pick(ints.isEmpty() ? bools : ints) + ";");
+                return;
+            }
+            break;
+        case 2:
+            line(indent, "cout << " + (random.nextBoolean()
+                 ? "\"s" + random.nextInt(100) + "\\n\"" : intExp(length, 2)) + ";");
+            return;
+        case 3:
+            Fn fn = pickFn(null);
+            if (fn != null) {
+                line(indent, call(fn, 1) + ";");
+                return;
+            }
+            break;
+        case 4:
+            if (!bools.isEmpty()) {
+                line(indent, pick(bools) + " = " + boolExp(length, 2) + ";");
+                return;
+            }
+            break;
+        }
+        if (!ints.isEmpty()) {
+            line(indent, pick(ints) + " = " + intExp(length, 2) + ";");
+        }
+        else {
+            line(indent, "cout << " + intExp(length, 2) + ";");
+        }
+    }
+
+    /**
+     * Return an int expression of the given number of operands; nest is
+     * how much deeper operands may themselves be expressions.
+     */
+    private String intExp(int operands, int nest) {
+        StringBuilder e = new StringBuilder(intTerm(nest));
+        String[] ops = { " + ", " - ", " * ", " / " };
+        for (int k = 1; k < operands; k++) {
+            e.append(ops[random.nextInt(4)]).append(intTerm(nest));
+        }
+        return e.toString();
+    }
+
+    private String intTerm(int nest) {
+        int kind = random.nextInt(nest > 0 ? 7 : 4);
+        switch (kind) {
+        case 0:
+        case 1:
+            if (!ints.isEmpty()) {
+                return pick(ints);
+            }
+            break;
+        case 2:
+            if (!fieldInts.isEmpty()) {
+                return pick(fieldInts);
+            }
+            break;
+        case 4:
+            return "(" + intExp(2 + random.nextInt(3), nest - 1) + ")";
+        case 5:
+            String t = intTerm(nest - 1);
+            return t.startsWith("-") ? "-(" + t + ")" : "-" + t;
+        case 6:
+            Fn fn = pickFn("int");
+            if (fn != null) {
+                return call(fn, nest - 1);
+            }
+            break;
+        }
+        return Integer.toString(random.nextInt(1000));
+    }
+
+    /**
+     * Return a bool expression of the given number of operands.
+     */
+    private String boolExp(int operands, int nest) {
+        StringBuilder e = new StringBuilder(boolTerm(nest));
+        for (int k = 1; k < operands; k++) {
+            e.append(random.nextBoolean() ? " && " : " || ")
+                .append(boolTerm(nest));
+        }
+        return e.toString();
+    }
+
+    private String boolTerm(int nest) {
+        String[] rel = { " < ", " > ", " <= ", " >= ", " == ", " != " };
+        int kind = random.nextInt(nest > 0 ? 7 : 4);
+        switch (kind) {
+        case 0:
+            if (!bools.isEmpty()) {
+                return pick(bools);
+            }
+            break;
+        case 1:
+            if (!fieldBools.isEmpty()) {
+                return pick(fieldBools);
+            }
+            break;
+        case 2:
+            return random.nextBoolean() ? "true" : "false";
+        case 4:
+            return "!(" + boolExp(2, nest - 1) + ")";
+        case 5:
+            Fn fn = pickFn("bool");
+            if (fn != null) {
+                return call(fn, nest - 1);
+            }
+            break;
+        case 6:
+            return "(" + boolExp(2 + random.nextInt(2), nest - 1) + ")";
+        }
+        return "(" + intExp(1 + random.nextInt(2), Math.max(0, nest - 1)) +
+            rel[random.nextInt(rel.length)] +
+            intExp(1 + random.nextInt(2), Math.max(0, nest - 1)) + ")";
+    }
+
+    private String call(Fn fn, int nest) {
+        StringBuilder c = new StringBuilder(fn.name + "(");
+        for (int k = 0; k < fn.formals.size(); k++) {
+            if (k > 0) {
+                c.append(", ");
+            }
+            c.append(fn.formals.get(k).equals("int")
+                     ? intExp(1 + random.nextInt(2), Math.max(0, nest))
+                     : boolExp(1 + random.nextInt(2), Math.max(0, nest)));
+        }
+        return c.append(")").toString();
+    }
+
+    /**
+     * Return a function declared so far that returns the given type (any
+     * type if null), or null if there is none.
+     */
+    private Fn pickFn(String type) {
+        for (int tries = 0; tries < 8 && !fns.isEmpty(); tries++) {
+            Fn fn = fns.get(random.nextInt(fns.size()));
+            if (type == null || fn.type.equals(type)) {
+                return fn;
+            }
+        }
+        return null;
+    }
+
+    private String pick(List<String> names) {
+        return names.get(random.nextInt(names.size()));
+    }
+
+    private void line(int indent, String text) {
+        for (int k = 0; k < indent; k++) {
+            out.append("    ");
+        }
+        out.append(text).append('\n');
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 // **********************************************************************
 // The ASTnode class defines the nodes of the abstract-syntax tree that
@@ -20,17 +21,17 @@ import java.util.*;
 //     Subclass            Kids
 //     --------            ----
 //     ProgramNode         DeclListNode
-//     DeclListNode        linked list of DeclNode
+//     DeclListNode        array of DeclNode
 //     DeclNode:
 //       VarDeclNode       TypeNode, IdNode, int
 //       FnDeclNode        TypeNode, IdNode, FormalsListNode, FnBodyNode
 //       FormalDeclNode    TypeNode, IdNode
 //       StructDeclNode    IdNode, DeclListNode
 //
-//     FormalsListNode     linked list of FormalDeclNode
+//     FormalsListNode     array of FormalDeclNode
 //     FnBodyNode          DeclListNode, StmtListNode
-//     StmtListNode        linked list of StmtNode
-//     ExpListNode         linked list of ExpNode
+//     StmtListNode        array of StmtNode
+//     ExpListNode         array of ExpNode
 //
 //     TypeNode:
 //       IntNode           -- none --
@@ -78,14 +79,14 @@ import java.util.*;
 //         GreaterEqNode
 //
 // Here are the different kinds of AST nodes again, organized according to
-// whether they are leaves, internal nodes with linked lists of kids, or
+// whether they are leaves, internal nodes with arrays of kids, or
 // internal nodes with a fixed number of kids:
 //
 // (1) Leaf nodes:
 //        IntNode,   BoolNode,  VoidNode,  IntLitNode,  StrLitNode,
 //        TrueNode,  FalseNode, IdNode
 //
-// (2) Internal nodes with (possibly empty) linked lists of children:
+// (2) Internal nodes with (possibly empty) arrays of children:
 //        DeclListNode, FormalsListNode, StmtListNode, ExpListNode
 //
 // (3) Internal nodes with fixed numbers of kids:
@@ -105,146 +106,68 @@ import java.util.*;
 // ASTnode class (base class for all other kinds of nodes)
 // **********************************************************************
 
+// An analyzed AST, with the symbols and types it is linked to, can be
+// kept in an AstCache; each node writes and reads its own fields (see
+// AstWriter).
 abstract class ASTnode { 
     // every subclass must provide an unparse operation
     abstract public void unparse(PrintWriter p, int indent);
 
-    // this method can be used by the unparse methods to do indenting
-    protected void doIndent(PrintWriter p, int indent) {
-        for (int k=0; k<indent; k++) p.print(" ");
-    }
-
-    public void initCodegenPrintWriter(PrintWriter p)
-    {
-	Codegen.p = p;
-    }
-
-    public void codeGen(PrintWriter p){
-    }
-
-    public void codeGen(PrintWriter p, String myReturn)
-    {
-
-    }
-
-    protected void generateWithComment(String opcode, String comment,
-                                        String arg1, String arg2, String arg3)
-    {
-		Codegen.generateWithComment(opcode, comment, arg1, arg2, arg3);
-    }
-
-    protected void generateWithComment(String opcode, String comment,
-                                        String arg1, String arg2)
-    {
-		Codegen.generateWithComment(opcode, comment, arg1, arg2, "");
-    
-    }
-    protected void generateWithComment(String opcode, String comment,
-                                        String arg1)
-    {
-		Codegen.generateWithComment(opcode, comment, arg1, "", "");
-    }
-    
-    protected void generateWithComment(String opcode, String comment)
-    {
-		Codegen.generateWithComment(opcode, comment, "", "", "");
-    }
-	
-    protected void generate(String opcode, String arg1, String arg2,
-                                String arg3) 
-    {
-		Codegen.generate(opcode, arg1, arg2, arg3);
-    }
-	
-    protected void generate(String opcode, String arg1, String arg2)
-    {	
-		Codegen.generate(opcode, arg1, arg2, "");
+    /**
+     * accept
+     * Walk the subtree rooted at this node with the given visitor:
+     * preVisit this node, then (unless preVisit returned false) its
+     * children in source order, then postVisit this node.
+     */
+    public void accept(ASTVisitor v) {
+        if (v.preVisit(this)) {
+            visitChildren(v);
+        }
+        v.postVisit(this);
     }
 
-    protected void generate(String opcode, String arg1)
-    {
-		Codegen.generate(opcode, arg1, "", "");
-    }
+    // leaf nodes have no children; internal nodes override this
+    protected void visitChildren(ASTVisitor v) { }
 
-    protected void generate(String opcode){
-		Codegen.generate(opcode, "", "", "");
+    // this method can be used by the unparse methods to do indenting
+    protected void doIndent(PrintWriter p, int indent) {
+        for (int k=0; k<indent; k++) p.print(" ");
     }
 
-    protected void generate(String opcode, String arg1, String arg2,
-							int arg3)
-    {
-		Codegen.generate(opcode, arg1, arg2, arg3);
+    public void codeGen(Codegen p){
     }
 
-    protected void generate(String opcode, String arg1, int arg2)
+    public void codeGen(Codegen p, String myReturn)
     {
-		Codegen.generate(opcode, arg1, arg2);
-    }
 
-    protected void generateIndexed(String opcode, String arg1, String arg2,
-		int arg3, String comment)
-    {
-		Codegen.generateIndexed(opcode, arg1, arg2, arg3, comment);
     }
 
-    protected void generateIndexed(String opcode, String arg1, String arg2,
-							int arg3)
-    {
-		Codegen.generateIndexed(opcode, arg1, arg2, arg3, "");
-    }
+    /**
+     * write
+     * Write the fields of this node, other than its children, that are
+     * used once it has been analyzed (see AstWriter); nodes without such
+     * fields write nothing.
+     */
+    public void write(AstWriter out) throws IOException { }
 
-    protected void generateLabeled(String label, String opcode,
-							String comment, String arg1)
-    {
-		Codegen.generateLabeled(label, opcode, comment, arg1);
-    }
+    /**
+     * read
+     * Read back the fields written by write (see AstReader).
+     */
+    public void read(AstReader in) throws IOException { }
 
-    protected void generateLabeled(String label, String opcode,
-							String comment)
-    {
-		Codegen.generateLabeled(label, opcode, comment, "");
-    }
+    static final String FP = Codegen.FP;
+    static final String SP = Codegen.SP;
+    static final String RA = Codegen.RA;
+    static final String V0 = Codegen.V0;
+    static final String V1 = Codegen.V1;
+    static final String A0 = Codegen.A0;
+    static final String T0 = Codegen.T0;
+    static final String T1 = Codegen.T1;
+    static final String TRUE = Codegen.TRUE;
+    static final String FALSE = Codegen.FALSE;
 
-    protected void genPush(String s)
-    {
-		Codegen.genPush(s);
-    }
-	
-    protected void genPop(String s)
-    {
-		Codegen.genPop(s);
-    }
-	
-    protected void genLabel(String label, String comment)
-    {
-		Codegen.genLabel(label, comment);
-    }
-	
-    protected void genLabel(String label)
-    {
-		Codegen.genLabel(label, "");
-    }
-	
-    protected String nextLabel()
-    {
-		return Codegen.nextLabel();
-    }
-	
-    final String FP = Codegen.FP;
-    final String SP = Codegen.SP;
-    final String RA = Codegen.RA;
-    final String V0 = Codegen.V0;
-    final String V1 = Codegen.V1;
-    final String A0 = Codegen.A0;
-    final String T0 = Codegen.T0;
-    final String T1 = Codegen.T1;
-    final String TRUE = Codegen.TRUE;
-    final String FALSE = Codegen.FALSE;
-
-    static boolean isLocal = true;
     public int offSet = 0;
-    // create a hashmap to avoid storing the same string lit more than once
-    public HashMap<String, String> strLits = new HashMap<String, String> ();
 }
 
 // **********************************************************************
@@ -263,15 +186,42 @@ class ProgramNode extends ASTnode {
      * all of the globals, struct defintions, and functions in the program.
      */
     public void nameAnalysis() {
-        SymTable symTab = new SymTable();
-        isLocal = false;
+        nameAnalysis(new SymTable(), true);
+    }
+
+    /**
+     * nameAnalysis
+     * As above, but in the given outermost scope, which may already hold
+     * names declared by other units (see ModuleInterface); a main function
+     * is required only if needMain is true.
+     */
+    public void nameAnalysis(SymTable symTab, boolean needMain) {
+        myDeclList.makeGlobal();
 	myDeclList.nameAnalysis(symTab);
-	
+	myGlobals = symTab;
+	if (needMain) {
+	    checkMain(symTab);
+	}
+    }
+
+    /**
+     * Return the outermost scope, once nameAnalysis has been done.
+     */
+    public SymTable globals() {
+        return myGlobals;
+    }
+
+    /**
+     * checkMain
+     * Report a fatal error, and abandon the compilation, if the global
+     * scope of symTab has no main function.
+     */
+    public static void checkMain(SymTable symTab) {
 	SemSym main = symTab.lookupGlobal("main");
 	if(main == null || !(main instanceof FnSym))
 	{
 	   ErrMsg.fatal(0, 0, "No main function");
-	   System.exit(-1);
+	   throw new CompileAbortException(null);
 	} 
     }
     
@@ -282,21 +232,97 @@ class ProgramNode extends ASTnode {
         myDeclList.typeCheck();
     }   
 
-    public void codeGen(PrintWriter p) {
-	myDeclList.codeGen(p);
+    /**
+     * typeCheck
+     * As above, but checking the functions in parallel on the given pool.
+     */
+    public void typeCheck(ForkJoinPool pool) {
+        myDeclList.typeCheck(pool);
+    }   
+
+    public void codeGen(Codegen p) {
+	codeGen(p, null, null);
     } 
 
+    /**
+     * codeGen
+     * As above, but generating the functions in parallel on the given pool
+     * (if not null) and reusing the code for unchanged functions from the
+     * given cache (if not null).
+     */
+    public void codeGen(Codegen p, ForkJoinPool pool, CodeCache cache) {
+	codeGen(p, pool, cache, stringPool());
+    } 
+
+    /**
+     * As above, given the pool of the string literals in the program.
+     */
+    public void codeGen(Codegen p, ForkJoinPool pool, CodeCache cache,
+			StringPool strings) {
+	myDeclList.codeGen(p, pool, cache);
+	strings.codeGen(p);
+    } 
+
+    /**
+     * Return a pool of all the string literals in the program.
+     */
+    public StringPool stringPool() {
+        StringPool strings = new StringPool();
+        strings.addAll(this);
+        return strings;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
     }
+
+    public DeclListNode declList() {
+        return myDeclList;
+    }
+
+    public void write(AstWriter out) throws IOException {
+        out.writeTable(myGlobals);
+    }
+
+    public void read(AstReader in) throws IOException {
+        myGlobals = in.readTable();
+    }
    
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myDeclList.accept(v);
+    }
+
     // 1 kid
     private DeclListNode myDeclList;
+    private SymTable myGlobals = null;
 }
 
 class DeclListNode extends ASTnode {
     public DeclListNode(List<DeclNode> S) {
-        myDecls = S;
+        myDecls = S.toArray(new DeclNode[S.size()]);
+    }
+
+    /**
+     * Concatenate the given lists, in order, into one list.
+     */
+    public DeclListNode(List<DeclListNode> lists, int size) {
+        myDecls = new DeclNode[size];
+        int k = 0;
+        for (DeclListNode list : lists) {
+            System.arraycopy(list.myDecls, 0, myDecls, k, list.myDecls.length);
+            k += list.myDecls.length;
+        }
+    }
+
+    public int size() {
+        return myDecls.length;
+    }
+
+    public List<DeclNode> decls() {
+        return Arrays.asList(myDecls);
     }
 
     /**
@@ -347,22 +373,86 @@ class DeclListNode extends ASTnode {
             node.typeCheck();
         }
     }
+
+    /**
+     * typeCheck
+     * Type check each function as a separate task on the given pool.
+     * Functions only read the (already built) symbol tables, so the only
+     * thing that has to be kept in order is the error messages: each task
+     * buffers its messages and they are replayed in declaration order.
+     */
+    public void typeCheck(ForkJoinPool pool) {
+        List<ForkJoinTask<ErrMsg>> tasks = new ArrayList<ForkJoinTask<ErrMsg>>();
+        for (final DeclNode node : myDecls) {
+            tasks.add(pool.submit(new Callable<ErrMsg>() {
+                public ErrMsg call() {
+                    ErrMsg msgs = ErrMsg.buffered();
+                    ErrMsg old = ErrMsg.install(msgs);
+                    try {
+                        node.typeCheck();
+                    } finally {
+                        ErrMsg.install(old);
+                    }
+                    return msgs;
+                }
+            }));
+        }
+        for (ForkJoinTask<ErrMsg> task : tasks) {
+            ErrMsg.replay(task.join());
+        }
+    }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator it = myDecls.iterator();
-        try {
-            while (it.hasNext()) {
-                ((DeclNode)it.next()).unparse(p, indent);
+        for (DeclNode node : myDecls) {
+            node.unparse(p, indent);
+        }
+    }
+
+    /**
+     * codeGen
+     * Generate each top-level decl into its own section of p, with a label
+     * namespace named after the decl, and write the sections out in
+     * declaration order. If pool is not null the sections are generated in
+     * parallel; the output is the same either way. If cache is not null,
+     * functions whose code is in the cache are not generated again.
+     */
+    public void codeGen(Codegen p, ForkJoinPool pool, final CodeCache cache) {
+        Codegen[] sections = new Codegen[myDecls.length];
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int k = 0; k < myDecls.length; k++) {
+            final DeclNode node = myDecls[k];
+            final Codegen section = p.newSection(node.name());
+            sections[k] = section;
+            Runnable gen = new Runnable() {
+                public void run() {
+                    CompilerEvents.Function event =
+                        new CompilerEvents.Function();
+                    event.begin();
+                    if (cache != null && node instanceof FnDeclNode) {
+                        cache.codeGen((FnDeclNode)node, section);
+                    }
+                    else {
+                        node.codeGen(section);
+                    }
+                    event.end();
+                    if (node instanceof FnDeclNode) {
+                        CompilerEvents.commit(event, "codeGen",
+                                              (FnDeclNode)node, section);
+                    }
+                }
+            };
+            if (pool == null) {
+                gen.run();
+            }
+            else {
+                tasks.add(pool.submit(gen));
             }
-        } catch (NoSuchElementException ex) {
-            System.err.println("unexpected NoSuchElementException in DeclListNode.print");
-            System.exit(-1);
         }
-    }
-
-    public void codeGen(PrintWriter p) {
-        for (DeclNode node : myDecls) {
-            node.codeGen(p);
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        for (Codegen section : sections) {
+            p.append(section);
         }
     }
 
@@ -374,19 +464,36 @@ class DeclListNode extends ASTnode {
 	this.declListOffSet = declListOffSet;
     } 
 
+    /**
+     * Mark this as the list of top-level (global) declarations.
+     */
+    public void makeGlobal() {
+	isLocal = false;
+    }
+
     public int getSize()
     {
 	return offSet - declListOffSet;
     }
     
-    // list of kids (DeclNodes)
-    private List<DeclNode> myDecls;
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        for (DeclNode node : myDecls) {
+            node.accept(v);
+        }
+    }
+
+    // array of kids (DeclNodes), sized when the list is reduced
+    private DeclNode[] myDecls;
     private int declListOffSet = 0;
+    private boolean isLocal = true;
 }
 
 class FormalsListNode extends ASTnode {
     public FormalsListNode(List<FormalDeclNode> S) {
-        myFormals = S;
+        myFormals = S.toArray(new FormalDeclNode[S.size()]);
     }
 
     /**
@@ -397,9 +504,8 @@ class FormalsListNode extends ASTnode {
      *     if there was no error, add type of formal decl to list
      */
     public List<Type> nameAnalysis(SymTable symTab) {
-        List<Type> typeList = new LinkedList<Type>();
+        List<Type> typeList = new ArrayList<Type>(myFormals.length);
         
-	isLocal = true;
 	offSet = formalsListOffSet;
 	
 	for (FormalDeclNode node : myFormals) {
@@ -418,30 +524,24 @@ class FormalsListNode extends ASTnode {
      * Return the number of formals in this list.
      */
     public int length() {
-        return myFormals.size();
+        return myFormals.length;
     }
     
 
-    public void codeGen(PrintWriter p) {
+    public void codeGen(Codegen p) {
        
-	initCodegenPrintWriter(p); 
-	int offSet = 8;
-	for (FormalDeclNode node : myFormals) {
-            offSet += 4;
-        }
-	generate("addu", FP, SP, offSet);
+	int offSet = 8 + 4 * myFormals.length;
+	p.generate("addu", FP, SP, offSet);
 	
     }
 
     public void unparse(PrintWriter p, int indent) {
-        Iterator<FormalDeclNode> it = myFormals.iterator();
-        if (it.hasNext()) { // if there is at least one element
-            it.next().unparse(p, indent);
-            while (it.hasNext()) {  // print the rest of the list
+        for (int k = 0; k < myFormals.length; k++) {
+            if (k > 0) {  // separate the rest of the list
                 p.print(", ");
-                it.next().unparse(p, indent);
             }
-        } 
+            myFormals[k].unparse(p, indent);
+        }
     }
 
     public int getOffSet()
@@ -459,8 +559,17 @@ class FormalsListNode extends ASTnode {
 	return offSet - formalsListOffSet;
     }
 
-    // list of kids (FormalDeclNodes)
-    private List<FormalDeclNode> myFormals;
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        for (FormalDeclNode node : myFormals) {
+            node.accept(v);
+        }
+    }
+
+    // array of kids (FormalDeclNodes)
+    private FormalDeclNode[] myFormals;
     private int formalsListOffSet = 0;
 }
 
@@ -477,12 +586,12 @@ class FnBodyNode extends ASTnode {
      * - process the statement list
      */
     public void nameAnalysis(SymTable symTab) {
-        isLocal = true;
 	myDeclList.setOffSet(declListOffSet);
 	myDeclList.nameAnalysis(symTab);
 
 	myStmtList.setOffSet(myDeclList.getOffSet());
         myStmtList.nameAnalysis(symTab);
+	offSet = myStmtList.getOffSet();	// below the last local
     }    
  
     /**
@@ -492,7 +601,7 @@ class FnBodyNode extends ASTnode {
         myStmtList.typeCheck(retType);
     }    
         
-    public void codeGen(PrintWriter p, String myReturn) {
+    public void codeGen(Codegen p, String myReturn) {
 	myStmtList.codeGen(p, myReturn);
     } 
  
@@ -501,6 +610,10 @@ class FnBodyNode extends ASTnode {
         myStmtList.unparse(p, indent);
     }
 
+    /**
+     * Return the offset (from FP) just below the lowest local of the body,
+     * those of nested blocks included; each local has a slot of its own.
+     */
     public int getOffSet()
     {
 	return offSet;
@@ -516,6 +629,22 @@ class FnBodyNode extends ASTnode {
 	return myDeclList.getSize() + myStmtList.getSize();
     }
 
+    public void write(AstWriter out) throws IOException {
+        out.writeInt(offSet);
+    }
+
+    public void read(AstReader in) throws IOException {
+        offSet = in.readInt();
+    }
+
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myDeclList.accept(v);
+        myStmtList.accept(v);
+    }
+
     // 2 kids
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
@@ -525,7 +654,7 @@ class FnBodyNode extends ASTnode {
 
 class StmtListNode extends ASTnode {
     public StmtListNode(List<StmtNode> S) {
-        myStmts = S;
+        myStmts = S.toArray(new StmtNode[S.size()]);
     }
 
     /**
@@ -552,13 +681,12 @@ class StmtListNode extends ASTnode {
     }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator<StmtNode> it = myStmts.iterator();
-        while (it.hasNext()) {
-            it.next().unparse(p, indent);
+        for (StmtNode node : myStmts) {
+            node.unparse(p, indent);
         }
     }
 
-    public void codeGen(PrintWriter p, String myReturn)
+    public void codeGen(Codegen p, String myReturn)
     {
 	for(StmtNode node: myStmts)
 	{
@@ -583,18 +711,27 @@ class StmtListNode extends ASTnode {
 	return offSet - stmtListOffSet;
     }
 
-    // list of kids (StmtNodes)
-    private List<StmtNode> myStmts;
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        for (StmtNode node : myStmts) {
+            node.accept(v);
+        }
+    }
+
+    // array of kids (StmtNodes)
+    private StmtNode[] myStmts;
     private int stmtListOffSet = 0;
 }
 
 class ExpListNode extends ASTnode {
     public ExpListNode(List<ExpNode> S) {
-        myExps = S;
+        myExps = S.toArray(new ExpNode[S.size()]);
     }
 
     public int size() {
-        return myExps.size();
+        return myExps.length;
     }
     
     /**
@@ -626,33 +763,38 @@ class ExpListNode extends ASTnode {
                 k++;
             }
         } catch (NoSuchElementException e) {
-            System.err.println("unexpected NoSuchElementException in ExpListNode.typeCheck");
-            System.exit(-1);
+            throw new CompileAbortException("unexpected NoSuchElementException in ExpListNode.typeCheck");
         }
     }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator<ExpNode> it = myExps.iterator();
-        if (it.hasNext()) { // if there is at least one element
-            it.next().unparse(p, indent);
-            while (it.hasNext()) {  // print the rest of the list
+        for (int k = 0; k < myExps.length; k++) {
+            if (k > 0) {  // separate the rest of the list
                 p.print(", ");
-                it.next().unparse(p, indent);
             }
-        } 
+            myExps[k].unparse(p, indent);
+        }
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	for(ExpNode node : myExps)
 	{
 	    node.codeGen(p);
 	}
     }
 
-    // list of kids (ExpNodes)
-    private List<ExpNode> myExps;
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        for (ExpNode node : myExps) {
+            node.accept(v);
+        }
+    }
+
+    // array of kids (ExpNodes)
+    private ExpNode[] myExps;
 }
 
 // **********************************************************************
@@ -665,6 +807,9 @@ abstract class DeclNode extends ASTnode {
      */
     abstract public SemSym nameAnalysis(SymTable symTab);
 
+    // name of the thing being declared
+    abstract public String name();
+
     // default version of typeCheck for non-function decls
     public void typeCheck() { }
 }
@@ -740,13 +885,11 @@ class VarDeclNode extends DeclNode {
                 symTab.addDecl(name, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected DuplicateSymException " +
+                                                " in VarDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                                " in VarDeclNode.nameAnalysis");
             }
         }
         
@@ -761,17 +904,20 @@ class VarDeclNode extends DeclNode {
         p.println(";");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	if (!isLocal) {
-	   generate(".data");
-	   generate(".align 2");
-	   generateLabeled("_" +myId.name(), ".space 4", 
-		"Universal global variable declaration generator");
+	if (myId.sym() != null && !myId.isLocal()) {
+	   p.generate(".data");
+	   p.generate(".align 2");
+	   p.generateLabeled("_" +myId.name(), ".space 4", 
+		"#Universal global variable declaration generator");
 	}			
     }
     
+    public String name() {
+        return myId.name();
+    }
+
     public void setIdOffSet(int varDeclOffSet)
     {
 	myId.setOffSet(varDeclOffSet);
@@ -782,12 +928,28 @@ class VarDeclNode extends DeclNode {
 	myId.makeGlobal();
     }
 
+    public void write(AstWriter out) throws IOException {
+        out.writeInt(mySize);
+    }
+
+    public void read(AstReader in) throws IOException {
+        mySize = in.readInt();
+    }
+
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myType.accept(v);
+        myId.accept(v);
+    }
+
     // 3 kids
     private TypeNode myType;
     private IdNode myId;
     private int mySize;  // use value NOT_STRUCT if this is not a struct type
 
-    public static int NOT_STRUCT = -1;
+    public static final int NOT_STRUCT = -1;
 }
 
 class FnDeclNode extends DeclNode {
@@ -829,18 +991,15 @@ class FnDeclNode extends DeclNode {
                 symTab.addDecl(name, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected DuplicateSymException " +
+                                                " in FnDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                                " in FnDeclNode.nameAnalysis");
             }
         }
         
         symTab.addScope();
-	isLocal = true;
 	myFormalsList.setOffSet(0);
         List<Type> typeList = myFormalsList.nameAnalysis(symTab);
         
@@ -853,9 +1012,8 @@ class FnDeclNode extends DeclNode {
 	try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in FnDeclNode.nameAnalysis");
-            System.exit(-1);
+            throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                            " in FnDeclNode.nameAnalysis");
         }
         return null;
     } 
@@ -864,7 +1022,15 @@ class FnDeclNode extends DeclNode {
      * typeCheck
      */
     public void typeCheck() {
+        CompilerEvents.Function event = new CompilerEvents.Function();
+        event.begin();
         myBody.typeCheck(myType.type());
+        event.end();
+        CompilerEvents.commit(event, "typeCheck", this, null);
+    }
+
+    public String name() {
+        return myId.name();
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -879,48 +1045,115 @@ class FnDeclNode extends DeclNode {
         p.println("}\n");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	generate(".text");
+	p.generate(".text");
 	if(myId.name().equals("main"))
 	{
-		generate(".globl main");
-		genLabel("main");
-		genLabel("__start");
+		p.generate(".globl main");
+		p.genLabel("main");
+		p.genLabel("__start");
 	}
 	// for non-main functions
 	else
 	{
-		genLabel("_" +myId.name());
+		p.genLabel("_" +myId.name());
 	}
 
-	genPush(RA);
-	genPush(FP);
+	if (p.optimizeFrames()) {
+		genOptimizedFrame(p);
+	}
+	else {
+		p.genPush(RA);
+		p.genPush(FP);
 	
-	myFormalsList.codeGen(p);
-
-	String myReturn = nextLabel();
-        myBody.codeGen(p, myReturn);
-	genLabel(myReturn);
-
-	// code that needs to be generated	
-	generateIndexed("lw", RA, FP, -(4* myFormalsList.length()), "load return address");
-	generateWithComment("move", "FP holds address to which we need to"+
-		" restore SP", T0, FP);
-	generateIndexed("lw", FP, FP, -(4* myFormalsList.length()) - 4, "restore FP");
-	generateWithComment("move", "restore SP", SP, T0);
+		myFormalsList.codeGen(p);
+
+		String myReturn = p.nextLabel();
+		myBody.codeGen(p, myReturn);
+		p.genLabel(myReturn);
+
+		// code that needs to be generated	
+		p.generateIndexed("lw", RA, FP, -(4* myFormalsList.length()), "load return address");
+		p.generateWithComment("move", "FP holds address to which we need to"+
+			" restore SP", T0, FP);
+		p.generateIndexed("lw", FP, FP, -(4* myFormalsList.length()) - 4, "restore FP");
+		p.generateWithComment("move", "restore SP", SP, T0);
+	}
 
 	// code needed to return
 	if (myId.name().equals("main")) {
-	    generate("li", V0, 10);
-	    generateWithComment("syscall", "Exit main");
+	    p.generate("li", V0, 10);
+	    p.generateWithComment("syscall", "Exit main");
 	}
 	else {
-	    generateWithComment("jr", "Exit non-main function", RA);
+	    p.generateWithComment("jr", "Exit non-main function", RA);
 	}	
     }
 
+    /**
+     * Generate the body with a frame that has no frame pointer (see
+     * Codegen.setOptimizeFrames). The frame is laid out as usual, below
+     * the arguments: RA, a slot where FP would be saved (kept so that the
+     * offsets given by nameAnalysis still hold), then the locals, which
+     * are all allocated by one instruction. RA is only saved if the body
+     * calls a function. The epilogue pops the frame and the arguments.
+     */
+    private void genOptimizedFrame(Codegen p)
+    {
+	int formals = 4 * myFormalsList.length();
+	// RA, FP slot and the locals, down to the lowest local of any block
+	int frame = -myBody.getOffSet() - formals;
+	boolean leaf = !callsFunction();
+
+	p.generateWithComment("subu", "allocate frame", SP, SP, "" + frame);
+	p.beginFrame(frame + formals);
+	if (!leaf) {
+	    p.generateFrameIndexed("sw", RA, -formals, "save return address");
+	}
+
+	String myReturn = p.nextLabel();
+        myBody.codeGen(p, myReturn);
+	p.genLabel(myReturn);
+	// each return branches here with just the frame allocated
+	p.beginFrame(frame + formals);
+
+	if (!leaf) {
+	    p.generateFrameIndexed("lw", RA, -formals, "load return address");
+	}
+	p.generateWithComment("addu", "pop frame and arguments", SP, SP,
+			      "" + p.frameOffset(0));
+    }
+
+    /**
+     * Return true if the body of this function calls a function.
+     */
+    private boolean callsFunction()
+    {
+	final boolean[] calls = { false };
+	myBody.accept(new ASTVisitor() {
+	    public boolean preVisit(ASTnode node) {
+		if (node instanceof CallExpNode) {
+		    calls[0] = true;
+		}
+		return !calls[0];
+	    }
+
+	    public void postVisit(ASTnode node) { }
+	});
+	return calls[0];
+    }
+
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myType.accept(v);
+        myId.accept(v);
+        myFormalsList.accept(v);
+        myBody.accept(v);
+    }
+
     // 4 kids
     private TypeNode myType;
     private IdNode myId;
@@ -965,19 +1198,21 @@ class FormalDeclNode extends DeclNode {
                 symTab.addDecl(name, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected DuplicateSymException " +
+                                                " in VarDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                                " in VarDeclNode.nameAnalysis");
             }
         }
         
         return sym;
     }    
     
+    public String name() {
+        return myId.name();
+    }
+
     public void setIdOffSet(int formalDeclOffSet)
     {
 	myId.setOffSet(formalDeclOffSet);
@@ -989,6 +1224,14 @@ class FormalDeclNode extends DeclNode {
         p.print(myId.name());
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myType.accept(v);
+        myId.accept(v);
+    }
+
     // 2 kids
     private TypeNode myType;
     private IdNode myId;
@@ -1031,18 +1274,24 @@ class StructDeclNode extends DeclNode {
                 symTab.addDecl(name, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in StructDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected DuplicateSymException " +
+                                                " in StructDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in StructDeclNode.nameAnalysis");
-                System.exit(-1);
+                throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                                " in StructDeclNode.nameAnalysis");
             }
         }
         
         return null;
     }    
+
+    public String name() {
+        return myId.name();
+    }
+
+    public DeclListNode declList() {
+        return myDeclList;
+    }
     
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
@@ -1055,6 +1304,14 @@ class StructDeclNode extends DeclNode {
 
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myId.accept(v);
+        myDeclList.accept(v);
+    }
+
     // 2 kids
     private IdNode myId;
     private DeclListNode myDeclList;
@@ -1138,6 +1395,13 @@ class StructNode extends TypeNode {
         p.print(myId.name());
     }
     
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myId.accept(v);
+    }
+
     // 1 kid
     private IdNode myId;
 }
@@ -1180,10 +1444,10 @@ class AssignStmtNode extends StmtNode {
         p.println(";");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
 	myAssign.codeGen(p);
-	genPop(T0);
+	p.genPop(T0);
     }
 
     public void setOffSet (int assignOffSet)
@@ -1196,6 +1460,13 @@ class AssignStmtNode extends StmtNode {
 	return assignOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myAssign.accept(v);
+    }
+
     // 1 kid
     private AssignNode myAssign;
     private int assignOffSet;
@@ -1232,15 +1503,14 @@ class PostIncStmtNode extends StmtNode {
         p.println("++;");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	myExp.codeGen(p);
 	((IdNode)myExp).genAddr(p);
-	genPop(T1);
-	genPop(T0);
-	generate("add", T0, T0, 1);
-	generateIndexed("sw", T0, T1, 0);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("add", T0, T0, 1);
+	p.generateIndexed("sw", T0, T1, 0);
     }
 
     public void setOffSet(int incOffSet)
@@ -1253,6 +1523,13 @@ class PostIncStmtNode extends StmtNode {
 	return incOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+    }
+
     // 1 kid
     private ExpNode myExp;
     private int incOffSet;
@@ -1289,15 +1566,14 @@ class PostDecStmtNode extends StmtNode {
         p.println("--;");
     }
     
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);	
 	myExp.codeGen(p);
 	((IdNode)myExp).genAddr(p);
-	genPop(T1);
-	genPop(T0);
-	generate("sub", T0, T0, 1);
-	generateIndexed("sw", T0, T1, 0);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("sub", T0, T0, 1);
+	p.generateIndexed("sw", T0, T1, 0);
     }
 
     public void setOffSet(int decOffSet)
@@ -1310,6 +1586,13 @@ class PostDecStmtNode extends StmtNode {
 	return decOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+    }
+
     // 1 kid
     private ExpNode myExp;
     private int decOffSet;
@@ -1358,16 +1641,15 @@ class ReadStmtNode extends StmtNode {
     
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	((IdNode)myExp).genAddr(p);
-	generate("li", V0, 5);
-	generate ("syscall");
+	p.generate("li", V0, 5);
+	p.generate ("syscall");
 
-	generateIndexed("lw", T0, SP, 4);
-	generateIndexed("sw", V0, T0, 0);
-	genPop(V0);
+	p.generateIndexed("lw", T0, SP, 4);
+	p.generateIndexed("sw", V0, T0, 0);
+	p.genPop(V0);
     }
 
     public int getOffSet()
@@ -1380,6 +1662,13 @@ class ReadStmtNode extends StmtNode {
 	this.readOffSet = readOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+    }
+
     // 1 kid (actually can only be an IdNode or an ArrayExpNode)
     private ExpNode myExp;
     private int readOffSet;
@@ -1432,23 +1721,22 @@ class WriteStmtNode extends StmtNode {
         p.println(";");
     }
     
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	myExp.codeGen(p);
-	genPop(A0);
+	p.genPop(A0);
 	
 	if(typeVar.isStringType())
 	{
-	    generate("li", V0, 4);
+	    p.generate("li", V0, 4);
 	}
 
 	else if(typeVar.isIntType() || typeVar.isBoolType())
 	{
-	    generate("li", V0, 1);
+	    p.generate("li", V0, 1);
 	}
 
-	generate("syscall");
+	p.generate("syscall");
     }
     
     public int getOffSet()
@@ -1461,6 +1749,21 @@ class WriteStmtNode extends StmtNode {
 	this.writeOffSet = writeOffSet;
     }
 	
+    public void write(AstWriter out) throws IOException {
+        out.writeType(typeVar);
+    }
+
+    public void read(AstReader in) throws IOException {
+        typeVar = in.readType();
+    }
+
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+    }
+
     // 1 kid
     private ExpNode myExp;
     private int writeOffSet;
@@ -1485,14 +1788,15 @@ class IfStmtNode extends StmtNode {
     public void nameAnalysis(SymTable symTab) {
         myExp.nameAnalysis(symTab);
         symTab.addScope();
+	myDeclList.setOffSet(ifOffSet);
         myDeclList.nameAnalysis(symTab);
+	myStmtList.setOffSet(myDeclList.getOffSet());
         myStmtList.nameAnalysis(symTab);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+            throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                            " in IfStmtNode.nameAnalysis");
         }
     }
     
@@ -1521,19 +1825,19 @@ class IfStmtNode extends StmtNode {
         p.println("}");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	String trueLab = nextLabel();
-   	String doneLab = nextLabel();
+	String trueLab = p.nextLabel();
+   	String doneLab = p.nextLabel();
    	myExp.genJumpCode(p, trueLab, doneLab);
-   	genLabel(trueLab);
+   	p.genLabel(trueLab);
    	myStmtList.codeGen(p);
-   	genLabel(doneLab);
+   	p.genLabel(doneLab);
     }
 
     public int getOffSet()
     {
-	return ifOffSet + myDeclList.getSize() + myStmtList.getSize();
+	return myStmtList.getOffSet();
     }
 
     public void setOffSet(int ifOffSet)
@@ -1546,6 +1850,15 @@ class IfStmtNode extends StmtNode {
 	return myDeclList.getSize() + myStmtList.getSize();
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+        myDeclList.accept(v);
+        myStmtList.accept(v);
+    }
+
     // e kids
     private ExpNode myExp;
     private DeclListNode myDeclList;
@@ -1578,24 +1891,26 @@ class IfElseStmtNode extends StmtNode {
     public void nameAnalysis(SymTable symTab) {
         myExp.nameAnalysis(symTab);
         symTab.addScope();
+	myThenDeclList.setOffSet(ifElseOffSet);
         myThenDeclList.nameAnalysis(symTab);
+	myThenStmtList.setOffSet(myThenDeclList.getOffSet());
         myThenStmtList.nameAnalysis(symTab);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+            throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                            " in IfStmtNode.nameAnalysis");
         }
         symTab.addScope();
+	myElseDeclList.setOffSet(myThenStmtList.getOffSet());
         myElseDeclList.nameAnalysis(symTab);
+	myElseStmtList.setOffSet(myElseDeclList.getOffSet());
         myElseStmtList.nameAnalysis(symTab);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+            throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                            " in IfStmtNode.nameAnalysis");
         }
     }
     
@@ -1631,21 +1946,20 @@ class IfElseStmtNode extends StmtNode {
         p.println("}");        
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	String trueLab = nextLabel();
-	String falseLab = nextLabel();
-   	String doneLab = nextLabel();
+	String trueLab = p.nextLabel();
+	String falseLab = p.nextLabel();
+   	String doneLab = p.nextLabel();
    	myExp.genJumpCode(p, trueLab, falseLab);
 
-   	genLabel(trueLab);
+   	p.genLabel(trueLab);
    	myThenStmtList.codeGen(p);
-	generate("b", doneLab);
+	p.generate("b", doneLab);
 
-   	genLabel(falseLab);
+   	p.genLabel(falseLab);
 	myElseStmtList.codeGen(p);
-	genLabel(doneLab);
+	p.genLabel(doneLab);
     }
 
     public int getOffSet()
@@ -1664,6 +1978,17 @@ class IfElseStmtNode extends StmtNode {
 		myElseDeclList.getSize() + myElseStmtList.getSize();
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+        myThenDeclList.accept(v);
+        myThenStmtList.accept(v);
+        myElseDeclList.accept(v);
+        myElseStmtList.accept(v);
+    }
+
     // 5 kids
     private ExpNode myExp;
     private DeclListNode myThenDeclList;
@@ -1691,14 +2016,15 @@ class WhileStmtNode extends StmtNode {
     public void nameAnalysis(SymTable symTab) {
         myExp.nameAnalysis(symTab);
         symTab.addScope();
+	myDeclList.setOffSet(whileOffSet);
         myDeclList.nameAnalysis(symTab);
+	myStmtList.setOffSet(myDeclList.getOffSet());
         myStmtList.nameAnalysis(symTab);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+            throw new CompileAbortException("Unexpected EmptySymTableException " +
+                                            " in IfStmtNode.nameAnalysis");
         }
     }
     
@@ -1727,19 +2053,19 @@ class WhileStmtNode extends StmtNode {
         p.println("}");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	String loopLab = nextLabel();
-   	String doneLab = nextLabel();
+	String loopLab = p.nextLabel();
+   	String doneLab = p.nextLabel();
 
-   	genLabel(loopLab);
+   	p.genLabel(loopLab);
    	myExp.codeGen(p);
-	genPop(T0);
-	generate("beq",T0, "0", doneLab);
+	p.genPop(T0);
+	p.generate("beq",T0, "0", doneLab);
 
 	myStmtList.codeGen(p);
-	generate("b", loopLab);
-	genLabel(doneLab);
+	p.generate("b", loopLab);
+	p.genLabel(doneLab);
     }
 
     public int getOffSet()
@@ -1752,6 +2078,15 @@ class WhileStmtNode extends StmtNode {
 	this.whileOffSet = whileOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+        myDeclList.accept(v);
+        myStmtList.accept(v);
+    }
+
     // 3 kids
     private ExpNode myExp;
     private DeclListNode myDeclList;
@@ -1785,10 +2120,10 @@ class CallStmtNode extends StmtNode {
         p.println(";");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
 	myCall.codeGen(p);
-	genPop(V0);
+	p.genPop(V0);
     }
 
     public int getOffSet()
@@ -1801,6 +2136,13 @@ class CallStmtNode extends StmtNode {
 	this.callOffSet = callOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myCall.accept(v);
+    }
+
     // 1 kid
     private CallExpNode myCall;
     private int callOffSet;
@@ -1858,15 +2200,14 @@ class ReturnStmtNode extends StmtNode {
         p.println(";");
     }
 
-    public void codeGen(PrintWriter p, String myReturn)
+    public void codeGen(Codegen p, String myReturn)
     {
-	initCodegenPrintWriter(p);
 	if(myExp != null)
 	{
 		myExp.codeGen(p);
-		genPop(V0);
+		p.genPop(V0);
 	}
-	generate("b", myReturn);
+	p.generate("b", myReturn);
     }
 
     public int getOffSet()
@@ -1879,6 +2220,15 @@ class ReturnStmtNode extends StmtNode {
 	this.returnOffSet = returnOffSet;
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        if (myExp != null) {
+            myExp.accept(v);
+        }
+    }
+
     // 1 kid
     private ExpNode myExp; // possibly null
     private int returnOffSet;
@@ -1897,8 +2247,8 @@ abstract class ExpNode extends ASTnode {
     abstract public Type typeCheck();
     abstract public int lineNum();
     abstract public int charNum();
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab) { }
-    public void genJumpAndLink(PrintWriter p) { }
+    public void genJumpCode(Codegen p, String trueLab, String falseLab) { }
+    public void genJumpAndLink(Codegen p) { }
 }
 
 class IntLitNode extends ExpNode {
@@ -1933,11 +2283,22 @@ class IntLitNode extends ExpNode {
         p.print(myIntVal);
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	generate("li", T0, myIntVal);
-	genPush(T0);
+	p.generate("li", T0, myIntVal);
+	p.genPush(T0);
+    }
+
+    public void write(AstWriter out) throws IOException {
+        out.writeLine(myLineNum);
+        out.writeInt(myCharNum);
+        out.writeInt(myIntVal);
+    }
+
+    public void read(AstReader in) throws IOException {
+        myLineNum = in.readLine();
+        myCharNum = in.readInt();
+        myIntVal = in.readInt();
     }
 
     private int myLineNum;
@@ -1977,24 +2338,31 @@ class StringLitNode extends ExpNode {
         p.print(myStrVal);
     }
  
-    public void codeGen(PrintWriter p)
+    /**
+     * Return the literal as written (with quotes and escapes).
+     */
+    public String strVal() {
+        return myStrVal;
+    }
+
+    // the string itself is emitted at the end of the program by
+    // StringPool, under a label that depends only on the string
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	generate(".data");
-	String stringLab;
-	if (strLits.containsKey(myStrVal)) {
-	   stringLab = strLits.get(myStrVal);
-	}
-	else {
-	   stringLab = nextLabel();
-	   generateLabeled(stringLab, ".asciiz", myStrVal);
-	   strLits.put(myStrVal, stringLab);
-	}
+	p.generate("la", T0, StringPool.label(myStrVal));
+	p.genPush(T0);
+    }
 
-	generate(".text");
-	generate("la", T0, stringLab);
-	genPush(T0);
-	
+    public void write(AstWriter out) throws IOException {
+        out.writeLine(myLineNum);
+        out.writeInt(myCharNum);
+        out.writeString(myStrVal);
+    }
+
+    public void read(AstReader in) throws IOException {
+        myLineNum = in.readLine();
+        myCharNum = in.readInt();
+        myStrVal = in.readString();
     }
 
     private int myLineNum;
@@ -2033,17 +2401,25 @@ class TrueNode extends ExpNode {
         p.print("true");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	generate("li", T0, TRUE);
-	genPush(T0);
+	p.generate("li", T0, TRUE);
+	p.genPush(T0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
-	generate("b", trueLab);
+	p.generate("b", trueLab);
+    }
+
+    public void write(AstWriter out) throws IOException {
+        out.writeLine(myLineNum);
+        out.writeInt(myCharNum);
+    }
+
+    public void read(AstReader in) throws IOException {
+        myLineNum = in.readLine();
+        myCharNum = in.readInt();
     }
 
     private int myLineNum;
@@ -2081,17 +2457,25 @@ class FalseNode extends ExpNode {
         p.print("false");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	generate("li", T0, FALSE);
-	genPush(T0);
+	p.generate("li", T0, FALSE);
+	p.genPush(T0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
-	generate("b", falseLab);
+	p.generate("b", falseLab);
+    }
+
+    public void write(AstWriter out) throws IOException {
+        out.writeLine(myLineNum);
+        out.writeInt(myCharNum);
+    }
+
+    public void read(AstReader in) throws IOException {
+        myLineNum = in.readLine();
+        myCharNum = in.readInt();
     }
 
     private int myLineNum;
@@ -2163,10 +2547,8 @@ class IdNode extends ExpNode {
             return mySym.getType();
         } 
         else {
-            System.err.println("ID with null sym field in IdNode.typeCheck");
-            System.exit(-1);
+            throw new CompileAbortException("ID with null sym field in IdNode.typeCheck");
         }
-        return null;
     }
            
     public void unparse(PrintWriter p, int indent) {
@@ -2176,60 +2558,56 @@ class IdNode extends ExpNode {
         }
     }
 
-    public void genJumpAndLink(PrintWriter p)
+    public void genJumpAndLink(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	if(myStrVal.equals("main")) {
-	    generate("jal", "main");
+	    p.generate("jal", "main");
 	}
 	else {
-	    generate("_" + myStrVal);
+	    p.generate("_" + myStrVal);
 	}
     }
 
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	if(mySym.isLocal())
 	{
-	    generateIndexed("lw", T0, FP, mySym.getOffSet());
+	    p.generateFrameIndexed("lw", T0, mySym.getOffSet());
 	}
 	else
 	{
-	    generate("lw", T0, "_" + myStrVal);
+	    p.generate("lw", T0, "_" + myStrVal);
 	}
     }
 
-    public void genAddr(PrintWriter p)
+    public void genAddr(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	if(mySym.isLocal())
 	{
-		generateIndexed("la", T0, FP, mySym.getOffSet());
+		p.generateFrameIndexed("la", T0, mySym.getOffSet());
 	}
 	else
 	{
-		generate("la", T0, "_" + myStrVal);
+		p.generate("la", T0, "_" + myStrVal);
 	}
 
-	genPush(T0);
+	p.genPush(T0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	if(mySym.isLocal())
 	{
-		generateIndexed("lw", T0, FP, mySym.getOffSet());
+		p.generateFrameIndexed("lw", T0, mySym.getOffSet());
 	}
 	else
 	{
-		generate("lw", T0, "_" + myStrVal);
+		p.generate("lw", T0, "_" + myStrVal);
 	}
 	
-	generate("beq", T0, "0", falseLab);
-	generate("b", trueLab);
+	p.generate("beq", T0, "0", falseLab);
+	p.generate("b", trueLab);
     }
 
 
@@ -2238,14 +2616,19 @@ class IdNode extends ExpNode {
 	return mySym.getOffSet();
     }
 
+    // (an ID whose declaration was bad has no symbol)
     public void setOffSet(int idOffSet)
     {
-	mySym.setOffSet(idOffSet);
+	if (mySym != null) {
+	    mySym.setOffSet(idOffSet);
+	}
     }
 
     public void makeGlobal()
     {
-	mySym.makeGlobal();
+	if (mySym != null) {
+	    mySym.makeGlobal();
+	}
     }
 
     public boolean isLocal()
@@ -2253,6 +2636,20 @@ class IdNode extends ExpNode {
 	return mySym.isLocal();
     }
 
+    public void write(AstWriter out) throws IOException {
+        out.writeLine(myLineNum);
+        out.writeInt(myCharNum);
+        out.writeName(myStrVal);
+        out.writeSym(mySym);
+    }
+
+    public void read(AstReader in) throws IOException {
+        myLineNum = in.readLine();
+        myCharNum = in.readInt();
+        myStrVal = in.readName();
+        mySym = in.readSym();
+    }
+
     private int myLineNum;
     private int myCharNum;
     private String myStrVal;
@@ -2350,8 +2747,7 @@ class DotAccessExpNode extends ExpNode {
                         structSymTab = ((StructDefSym)sym).getSymTable();
                     }
                     else {
-                        System.err.println("Unexpected Sym type in DotAccessExpNode");
-                        System.exit(-1);
+                        throw new CompileAbortException("Unexpected Sym type in DotAccessExpNode");
                     }
                 }
             }
@@ -2359,8 +2755,7 @@ class DotAccessExpNode extends ExpNode {
         }
         
         else { // don't know what kind of thing myLoc is
-            System.err.println("Unexpected node type in LHS of dot-access");
-            System.exit(-1);
+            throw new CompileAbortException("Unexpected node type in LHS of dot-access");
         }
         
         // do name analysis on RHS of dot-access in the struct's symbol table
@@ -2397,6 +2792,22 @@ class DotAccessExpNode extends ExpNode {
         myId.unparse(p, 0);
     }
 
+    public void write(AstWriter out) throws IOException {
+        out.writeSym(mySym);
+    }
+
+    public void read(AstReader in) throws IOException {
+        mySym = in.readSym();
+    }
+
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myLoc.accept(v);
+        myId.accept(v);
+    }
+
     // 2 kids
     private ExpNode myLoc;    
     private IdNode myId;
@@ -2479,29 +2890,35 @@ class AssignNode extends ExpNode {
         if (indent != -1)  p.print(")");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	myExp.codeGen(p);
 	((IdNode)myLhs).genAddr(p);
-	genPop(T0);
-	generateIndexed("lw", T1, SP, 4);
-	generateIndexed("sw", T1, T0, 0);
+	p.genPop(T0);
+	p.generateIndexed("lw", T1, SP, 4);
+	p.generateIndexed("sw", T1, T0, 0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	myExp.codeGen(p);
 	((IdNode)myLhs).genAddr(p);
-	genPop(T0);
-	genPop(T1);
-	generateIndexed("sw", T1, SP, 0);
-	generate("beq", T1, "0", falseLab);
-	generate("b", trueLab);
+	p.genPop(T0);
+	p.genPop(T1);
+	p.generateIndexed("sw", T1, SP, 0);
+	p.generate("beq", T1, "0", falseLab);
+	p.generate("b", trueLab);
 
     }
 
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myLhs.accept(v);
+        myExp.accept(v);
+    }
+
     // 2 kids
     private ExpNode myLhs;
     private ExpNode myExp;
@@ -2515,7 +2932,7 @@ class CallExpNode extends ExpNode {
 
     public CallExpNode(IdNode name) {
         myId = name;
-        myExpList = new ExpListNode(new LinkedList<ExpNode>());
+        myExpList = new ExpListNode(Collections.<ExpNode>emptyList());
     }
 
     /**
@@ -2557,8 +2974,7 @@ class CallExpNode extends ExpNode {
         FnSym fnSym = (FnSym)(myId.sym());
         
         if (fnSym == null) {
-            System.err.println("null sym for Id in CallExpNode.typeCheck");
-            System.exit(-1);
+            throw new CompileAbortException("null sym for Id in CallExpNode.typeCheck");
         }
         
         if (myExpList.size() != fnSym.getNumParams()) {
@@ -2581,21 +2997,29 @@ class CallExpNode extends ExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	myExpList.codeGen(p);
 	myId.genJumpAndLink(p);
-	genPush(V0);
+	p.calleePopped(4 * myExpList.size());
+	p.genPush(V0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	myExpList.codeGen(p);
 	myId.genJumpAndLink(p);
-	generate("beq", V0, "0", falseLab);
-	generate("b", trueLab);
+	p.calleePopped(4 * myExpList.size());
+	p.generate("beq", V0, "0", falseLab);
+	p.generate("b", trueLab);
+    }
+
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myId.accept(v);
+        myExpList.accept(v);
     }
 
     // 2 kids
@@ -2632,6 +3056,13 @@ abstract class UnaryExpNode extends ExpNode {
         myExp.nameAnalysis(symTab);
     }
     
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp.accept(v);
+    }
+
     // one child
     protected ExpNode myExp;
 }
@@ -2668,6 +3099,14 @@ abstract class BinaryExpNode extends ExpNode {
         myExp2.nameAnalysis(symTab);
     }
     
+    /**
+     * visitChildren
+     */
+    protected void visitChildren(ASTVisitor v) {
+        myExp1.accept(v);
+        myExp2.accept(v);
+    }
+
     // two kids
     protected ExpNode myExp1;
     protected ExpNode myExp2;
@@ -2708,13 +3147,12 @@ class UnaryMinusNode extends UnaryExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	myExp.codeGen(p);
-	genPop(T0);
-	generate("sub", T0, "0", T0);
-	genPush(T0);
+	p.genPop(T0);
+	p.generate("sub", T0, "0", T0);
+	p.genPush(T0);
     }
 }
 
@@ -2749,16 +3187,15 @@ class NotNode extends UnaryExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
 	myExp.codeGen(p);
-	genPop(T0);
-	generate("xor", T0, T0, TRUE);
-	genPush(T0);
+	p.genPop(T0);
+	p.generate("xor", T0, T0, TRUE);
+	p.genPush(T0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
 	myExp.genJumpCode(p, falseLab, trueLab);
     }
@@ -2932,22 +3369,21 @@ class PlusNode extends ArithmeticExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-       	initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: do the addition (T0 = T0 + T1)
-        generate("add", T0, T0, T1);
+        p.generate("add", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 }
@@ -2964,22 +3400,21 @@ class MinusNode extends ArithmeticExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-       	initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: do the subtraction (T0 = T0 - T1)
-        generate("sub", T0, T0, T1);
+        p.generate("sub", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 
@@ -2998,22 +3433,21 @@ class TimesNode extends ArithmeticExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-       	initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: do the multiplication (T0 = T0 * T1)
-        generate("mult", T0, T0, T1);
+        p.generate("mult", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 
@@ -3032,22 +3466,21 @@ class DivideNode extends ArithmeticExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-        initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: do the division (T0 = T0 / T1)
-        generate("div", T0, T0, T1);
+        p.generate("div", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 
@@ -3066,31 +3499,30 @@ class AndNode extends LogicalExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	String falseLab = nextLabel();
+	String falseLab = p.nextLabel();
 	
 	//Evaluate the left operand
 	myExp1.codeGen(p);
-	generate("beq", T0, FALSE, falseLab);
+	p.generate("beq", T0, FALSE, falseLab);
 	
 	//Evaluate the right operand if left operand is TRUE
 	myExp2.codeGen(p);
-	genPop(T1);
-	genPop(T0);
+	p.genPop(T1);
+	p.genPop(T0);
 
-	generate("and", T0, T0, T1);
+	p.generate("and", T0, T0, T1);
 
-	genPush(T0);
-	genLabel(falseLab);
+	p.genPush(T0);
+	p.genLabel(falseLab);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	String newLab = nextLabel();
+	String newLab = p.nextLabel();
 	myExp1.genJumpCode(p, newLab, falseLab);
-	genLabel(newLab);
+	p.genLabel(newLab);
 	myExp2.genJumpCode(p, trueLab, falseLab);
     }
 }
@@ -3108,31 +3540,30 @@ class OrNode extends LogicalExpNode {
         p.print(")");
     }
     
-    public void codeGen(PrintWriter p)
+    public void codeGen(Codegen p)
     {
-	initCodegenPrintWriter(p);
-	String trueLab = nextLabel();
+	String trueLab = p.nextLabel();
 	
 	//Evaluate the left operand
 	myExp1.codeGen(p);
-	generate("beq", T0, TRUE, trueLab);
+	p.generate("beq", T0, TRUE, trueLab);
 	
 	//Evaluate the right operand if left operand is FALSE
 	myExp2.codeGen(p);
-	genPop(T1);
-	genPop(T0);
+	p.genPop(T1);
+	p.genPop(T0);
 
-	generate("or", T0, T0, T1);
+	p.generate("or", T0, T0, T1);
 
-	genPush(T0);
-	genLabel(trueLab);
+	p.genPush(T0);
+	p.genLabel(trueLab);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	String newLab = nextLabel();
+	String newLab = p.nextLabel();
 	myExp1.genJumpCode(p, newLab, falseLab);
-	genLabel(newLab);
+	p.genLabel(newLab);
 	myExp2.genJumpCode(p, trueLab, falseLab);
     }
 }
@@ -3150,34 +3581,32 @@ class EqualsNode extends EqualityExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-       	initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
         
         // step 3: check if sequences are equal
-	generate("seq", T0, T0, T1);
+	p.generate("seq", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	myExp1.codeGen(p);
 	myExp2.codeGen(p);
 
-	genPop(T1);
-	genPop(T0);
-	generate("beq", T0, T1, trueLab);
-	generate("b", falseLab);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("beq", T0, T1, trueLab);
+	p.generate("b", falseLab);
     }
 
 }
@@ -3195,34 +3624,32 @@ class NotEqualsNode extends EqualityExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-        initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: check if sequences aren't equal
-        generate("sne", T0, T0, T1);
+        p.generate("sne", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
     }
     
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	myExp1.codeGen(p);
 	myExp2.codeGen(p);
 
-	genPop(T1);
-	genPop(T0);
-	generate("bne", T0, T1, trueLab);
-	generate("b", falseLab);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("bne", T0, T1, trueLab);
+	p.generate("b", falseLab);
     }
 
 }
@@ -3240,34 +3667,32 @@ class LessNode extends RelationalExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-        initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: check if sequences are strictly less than
-	generate("slt", T0, T0, T1);
+	p.generate("slt", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	myExp1.codeGen(p);
 	myExp2.codeGen(p);
 
-	genPop(T1);
-	genPop(T0);
-	generate("blt", T0, T1, trueLab);
-	generate("b", falseLab);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("blt", T0, T1, trueLab);
+	p.generate("b", falseLab);
     }
 
 }
@@ -3285,35 +3710,33 @@ class GreaterNode extends RelationalExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-        initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: check if sequences are strictly greater than
-	generate("sgt", T0, T0, T1);
+	p.generate("sgt", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-	initCodegenPrintWriter(p);
 	myExp1.codeGen(p);
 	myExp2.codeGen(p);
 
-	genPop(T1);
-	genPop(T0);
-	generate("bgt", T0, T1, trueLab);
-	generate("b", falseLab);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("bgt", T0, T1, trueLab);
+	p.generate("b", falseLab);
     }
 
 }
@@ -3331,35 +3754,33 @@ class LessEqNode extends RelationalExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-        initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: check if sequences are strictly less than or equal
-	generate("sle", T0, T0, T1);
+	p.generate("sle", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-        initCodegenPrintWriter(p);
 	myExp1.codeGen(p);
 	myExp2.codeGen(p);
 
-	genPop(T1);
-	genPop(T0);
-	generate("ble", T0, T1, trueLab);
-	generate("b", falseLab);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("ble", T0, T1, trueLab);
+	p.generate("b", falseLab);
     }
 }
 
@@ -3376,35 +3797,33 @@ class GreaterEqNode extends RelationalExpNode {
         p.print(")");
     }
 
-    public void codeGen(PrintWriter p) 
+    public void codeGen(Codegen p) 
     {
-        initCodegenPrintWriter(p);
 	// step 1: evaluate both operands
         myExp1.codeGen(p);
         myExp2.codeGen(p);
 
         // step 2: pop values in T0 and T1
-        genPop(T1);
-        genPop(T0);
+        p.genPop(T1);
+        p.genPop(T0);
     
         // step 3: check if sequences are greater than or equal
-	generate("sge", T0, T0, T1);
+	p.generate("sge", T0, T0, T1);
     
         // step 4: push result
-        genPush(T0);
+        p.genPush(T0);
 
     }
 
-    public void genJumpCode(PrintWriter p, String trueLab, String falseLab)
+    public void genJumpCode(Codegen p, String trueLab, String falseLab)
     {
-        initCodegenPrintWriter(p);
 	myExp1.codeGen(p);
 	myExp2.codeGen(p);
 
-	genPop(T1);
-	genPop(T0);
-	generate("bge", T0, T1, trueLab);
-	generate("b", falseLab);
+	p.genPop(T1);
+	p.genPop(T0);
+	p.generate("bge", T0, T1, trueLab);
+	p.generate("b", falseLab);
     }
 
 }
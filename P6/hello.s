@@ -7,30 +7,27 @@ __start:
 	sw    $fp, 0($sp)	#PUSH
 	subu  $sp, $sp, 4
 	addu  $fp, $sp, 8
-	.data
-.L1:	.asciiz	 "Hello world!"
-	.text
-	la    $t0, .L1
+	la    $t0, .LS9e77bdb7b7b67bee
 	sw    $t0, 0($sp)	#PUSH
 	subu  $sp, $sp, 4
 	lw    $a0, 4($sp)	#POP
 	addu  $sp, $sp, 4
 	li    $v0, 4
 	syscall
-	.data
-.L2:	.asciiz	 "\n"
-	.text
-	la    $t0, .L2
+	la    $t0, .LSd7a5e915306d21dc
 	sw    $t0, 0($sp)	#PUSH
 	subu  $sp, $sp, 4
 	lw    $a0, 4($sp)	#POP
 	addu  $sp, $sp, 4
 	li    $v0, 4
 	syscall
-.L0:
+.Lmain_0:
 	lw    $ra, 0($fp)	#load return address
 	move  $t0, $fp		#FP holds address to which we need to restore SP
 	lw    $fp, -4($fp)	#restore FP
 	move  $sp, $t0		#restore SP
 	li    $v0, 10
 	syscall		#Exit main
+	.data
+.LSd7a5e915306d21dc:	.asciiz	 "\n"
+.LS9e77bdb7b7b67bee:	.asciiz	 "Hello world!"